@@ -23,6 +23,8 @@ package org.cytoscape.kddn.internal;
 import java.util.Arrays;
 import java.lang.Math;
 
+import org.cytoscape.kddn.internal.linalg.MatrixKernels;
+
 /**
  * <code>BCD</code> implements block-wise coordinate descent algorithm to solve
  * two-conditioned regression problem.
@@ -45,8 +47,38 @@ public class BCD {
     private int p;
     private int n1;
     private int n2;
+    private int[] cols; // data column of each coordinate
+    // the data-matrix path reads (X[m][c] - center[c]) * scale[c], so a
+    // permuted view of raw rows is standardized without being copied
+    private double[] center1;
+    private double[] center2;
+    private double[] scale1;
+    private double[] scale2;
+
+    // covariance-update mode, works on Gram statistics instead of data
+    private boolean covariance = false;
+    private double[][] G1;
+    private double[][] G2;
+    private double[] c1;
+    private double[] c2;
+    private double yy1;
+    private double yy2;
+
+    // solver state, residuals for the data-matrix path, G * beta for the
+    // covariance-update path and squared column norms for both
+    private double[] r1;
+    private double[] r2;
+    private double[] s1;
+    private double[] s2;
+    private double[] q1;
+    private double[] q2;
+    private boolean activeSet = false;
+    private boolean screening = false;
+    private double gapTolerance = 0;
+    private double dualityGap = Double.NaN;
+    private boolean[] eliminated;
+
 
-    
     /**
      * A constructor for the class <code>BCD</code>.
      * 
@@ -82,6 +114,14 @@ public class BCD {
 			this.X2[i][j] = X2[i][j];
 		    }
 		}
+		this.cols = new int[p];
+		for (int j = 0; j < p; j ++) {
+		    this.cols[j] = j;
+		}
+		this.center1 = new double[p];
+		this.center2 = new double[p];
+		this.scale1 = ones(p);
+		this.scale2 = ones(p);
 		this.beta1 = new double[p];
 		this.beta2 = new double[p];
 		this.beta = new double[p*2];
@@ -112,22 +152,272 @@ public class BCD {
 
     }
 
+    /**
+     * A constructor for the class <code>BCD</code> that regresses one column
+     * of the data on all the others. The data matrices are shared, not
+     * copied, and must not be modified while solving. Coordinate k refers to
+     * column k for k &lt; node and to column k+1 otherwise.
+     * 
+     * @param X1        data matrix (n1 X p+1) under condtion 1
+     * @param X2        data matrix (n2 X p+1) under condtion 2
+     * @param node      the column used as response variable
+     * @param lambda1   penalty parameter that promotes sparsity in the learned 
+     *                  structure
+     * @param lambda2   penalty parameter that promotes sparse changes between 
+     *                  two conditions
+     */
+    public BCD(double[][] X1, double[][] X2, int node, double []lambda1, double lambda2) {
+
+		this(X1, X2, null, null, null, null, node, lambda1, lambda2);
+
+    }
 
     /**
-     * Solves the 2-d sub-problem of the coordinate block.
+     * A constructor for the class <code>BCD</code> that regresses one column
+     * of the data on all the others when initial beta is given.
+     * 
+     * @param X1        data matrix (n1 X p+1) under condtion 1
+     * @param X2        data matrix (n2 X p+1) under condtion 2
+     * @param node      the column used as response variable
+     * @param lambda1   penalty parameter that promotes sparsity in the learned 
+     *                  structure
+     * @param lambda2   penalty parameter that promotes sparse changes between 
+     *                  two conditions
+     * @param beta1     initial value of beta1 under condition 1
+     * @param beta2     initial value of beta2 under condition 2
      */
-    private double[] solve2d(double[] z1, double[] z2, double[] x1, double[] x2, int k) {
-		double rho1 = 0;
-		double rho2 = 0;
-		double b1 = 0;
-		double b2 = 0;
-	
+    public BCD(double[][] X1, double[][] X2, int node, double []lambda1, double lambda2, double[] beta1, double[] beta2) {
+
+		this(X1, X2, node, lambda1, lambda2);
+		System.arraycopy(beta1, 0, this.beta1, 0, p);
+		System.arraycopy(beta2, 0, this.beta2, 0, p);
+		System.arraycopy(beta1, 0, this.beta, 0, p);
+		System.arraycopy(beta2, 0, this.beta, p, p);
+
+    }
+
+    /**
+     * A constructor for the class <code>BCD</code> that regresses one column
+     * of the data on all the others, standardizing the data on the fly:
+     * column c is read as (X[m][c] - center[c]) * scale[c]. The rows may be
+     * a permutation of shared raw rows. Null center and scale leave the
+     * data as it is.
+     * 
+     * @param X1        data matrix (n1 X p+1) under condtion 1
+     * @param X2        data matrix (n2 X p+1) under condtion 2
+     * @param center1   column centers of X1 (p+1), or null
+     * @param scale1    column scales of X1 (p+1), or null
+     * @param center2   column centers of X2 (p+1), or null
+     * @param scale2    column scales of X2 (p+1), or null
+     * @param node      the column used as response variable
+     * @param lambda1   penalty parameter that promotes sparsity in the learned 
+     *                  structure
+     * @param lambda2   penalty parameter that promotes sparse changes between 
+     *                  two conditions
+     */
+    public BCD(double[][] X1, double[][] X2, double[] center1, double[] scale1, 
+	       double[] center2, double[] scale2, int node, double []lambda1, double lambda2) {
+		this.X1 = X1;
+		this.X2 = X2;
+		this.lambda1 = Arrays.copyOf(lambda1, lambda1.length);
+		this.lambda2 = lambda2;
+		this.n1 = X1.length;
+		this.n2 = X2.length;
+		this.p = X1[0].length - 1;
+		if (X1[0].length != X2[0].length) {
+		    System.out.println("The column number of X1 does NOT equal the column number of X2.");
+		}
+		this.center1 = center1 != null ? center1 : new double[p+1];
+		this.center2 = center2 != null ? center2 : new double[p+1];
+		this.scale1 = scale1 != null ? scale1 : ones(p+1);
+		this.scale2 = scale2 != null ? scale2 : ones(p+1);
+		this.y1 = new double[n1];
+		this.y2 = new double[n2];
 		for (int i = 0; i < n1; i ++) {
-		    rho1 = rho1 + z1[i] * x1[i];
+		    this.y1[i] = (X1[i][node] - this.center1[node]) * this.scale1[node];
 		}
 		for (int i = 0; i < n2; i ++) {
-		    rho2 = rho2 + z2[i] * x2[i];
+		    this.y2[i] = (X2[i][node] - this.center2[node]) * this.scale2[node];
+		}
+		this.cols = new int[p];
+		for (int j = 0; j < p; j ++) {
+		    this.cols[j] = j < node ? j : j + 1;
+		}
+		this.beta1 = new double[p];
+		this.beta2 = new double[p];
+		this.beta = new double[p*2];
+		this.adj = new int[2*p];
+    }
+
+    /**
+     * A constructor for the class <code>BCD</code> that regresses one column
+     * of the data, standardized on the fly, on all the others when initial
+     * beta is given.
+     * 
+     * @param X1        data matrix (n1 X p+1) under condtion 1
+     * @param X2        data matrix (n2 X p+1) under condtion 2
+     * @param center1   column centers of X1 (p+1), or null
+     * @param scale1    column scales of X1 (p+1), or null
+     * @param center2   column centers of X2 (p+1), or null
+     * @param scale2    column scales of X2 (p+1), or null
+     * @param node      the column used as response variable
+     * @param lambda1   penalty parameter that promotes sparsity in the learned 
+     *                  structure
+     * @param lambda2   penalty parameter that promotes sparse changes between 
+     *                  two conditions
+     * @param beta1     initial value of beta1 under condition 1
+     * @param beta2     initial value of beta2 under condition 2
+     */
+    public BCD(double[][] X1, double[][] X2, double[] center1, double[] scale1, 
+	       double[] center2, double[] scale2, int node, double []lambda1, double lambda2, 
+	       double[] beta1, double[] beta2) {
+
+		this(X1, X2, center1, scale1, center2, scale2, node, lambda1, lambda2);
+		System.arraycopy(beta1, 0, this.beta1, 0, p);
+		System.arraycopy(beta2, 0, this.beta2, 0, p);
+		System.arraycopy(beta1, 0, this.beta, 0, p);
+		System.arraycopy(beta2, 0, this.beta, p, p);
+
+    }
+
+    /**
+     * A constructor for the class <code>BCD</code> in covariance-update mode.
+     * Each coordinate update costs O(p) and does not depend on sample size.
+     * The Gram matrices are shared, not copied, and must not be modified
+     * while solving.
+     *
+     * @param G1        Gram matrix X1'X1 (p X p) under condition 1
+     * @param G2        Gram matrix X2'X2 (p X p) under condition 2
+     * @param c1        X1'y1 under condition 1
+     * @param c2        X2'y2 under condition 2
+     * @param yy1       y1'y1 under condition 1
+     * @param yy2       y2'y2 under condition 2
+     * @param lambda1   penalty parameter that promotes sparsity in the learned
+     *                  structure
+     * @param lambda2   penalty parameter that promotes sparse changes between
+     *                  two conditions
+     */
+    public BCD(double[][] G1, double[][] G2, double[] c1, double[] c2, double yy1, double yy2, double[] lambda1, double lambda2) {
+		this.G1 = G1;
+		this.G2 = G2;
+		this.c1 = Arrays.copyOf(c1, c1.length);
+		this.c2 = Arrays.copyOf(c2, c2.length);
+		this.yy1 = yy1;
+		this.yy2 = yy2;
+		this.lambda1 = Arrays.copyOf(lambda1, lambda1.length);
+		this.lambda2 = lambda2;
+		this.p = c1.length;
+		if (c1.length != c2.length) {
+		    System.out.println("The length of c1 does NOT equal the length of c2.");
+		}
+		this.covariance = true;
+		this.cols = new int[p];
+		for (int j = 0; j < p; j ++) {
+		    this.cols[j] = j;
+		}
+		this.beta1 = new double[p];
+		this.beta2 = new double[p];
+		this.beta = new double[p*2];
+		this.adj = new int[2*p];
+    }
+
+    /**
+     * A constructor for the class <code>BCD</code> in covariance-update mode
+     * when initial beta is given.
+     *
+     * @param G1        Gram matrix X1'X1 (p X p) under condition 1
+     * @param G2        Gram matrix X2'X2 (p X p) under condition 2
+     * @param c1        X1'y1 under condition 1
+     * @param c2        X2'y2 under condition 2
+     * @param yy1       y1'y1 under condition 1
+     * @param yy2       y2'y2 under condition 2
+     * @param lambda1   penalty parameter that promotes sparsity in the learned
+     *                  structure
+     * @param lambda2   penalty parameter that promotes sparse changes between
+     *                  two conditions
+     * @param beta1     initial value of beta1 under condition 1
+     * @param beta2     initial value of beta2 under condition 2
+     */
+    public BCD(double[][] G1, double[][] G2, double[] c1, double[] c2, double yy1, double yy2, double[] lambda1, double lambda2, double[] beta1, double[] beta2) {
+
+		this(G1, G2, c1, c2, yy1, yy2, lambda1, lambda2);
+		System.arraycopy(beta1, 0, this.beta1, 0, p);
+		System.arraycopy(beta2, 0, this.beta2, 0, p);
+		System.arraycopy(beta1, 0, this.beta, 0, p);
+		System.arraycopy(beta2, 0, this.beta, p, p);
+
+    }
+
+
+    /**
+     * Creates a <code>BCD</code> in covariance-update mode that regresses one
+     * variable on all the others, reading every statistic from the full Gram
+     * matrices. The Gram matrices are shared, not copied, and must not be
+     * modified while solving. Coordinate k refers to variable k for
+     * k &lt; node and to variable k+1 otherwise.
+     *
+     * @param G1        Gram matrix X1'X1 (p+1 X p+1) under condition 1
+     * @param G2        Gram matrix X2'X2 (p+1 X p+1) under condition 2
+     * @param node      the variable used as response variable
+     * @param lambda1   penalty parameter that promotes sparsity in the learned
+     *                  structure
+     * @param lambda2   penalty parameter that promotes sparse changes between
+     *                  two conditions
+     * @return          the solver for the node
+     */
+    public static BCD covariance(double[][] G1, double[][] G2, int node, double[] lambda1, double lambda2) {
+		int p = G1.length - 1;
+		if (G1.length != G2.length) {
+		    System.out.println("The size of G1 does NOT equal the size of G2.");
+		}
+		double[] c1 = new double[p];
+		double[] c2 = new double[p];
+		int[] cols = new int[p];
+		for (int j = 0; j < p; j ++) {
+		    cols[j] = j < node ? j : j + 1;
+		    c1[j] = G1[node][cols[j]];
+		    c2[j] = G2[node][cols[j]];
 		}
+
+		BCD solver = new BCD(G1, G2, c1, c2, G1[node][node], G2[node][node], lambda1, lambda2);
+		solver.cols = cols;
+		return solver;
+    }
+
+    /**
+     * Creates a <code>BCD</code> in covariance-update mode that regresses one
+     * variable on all the others when initial beta is given.
+     *
+     * @param G1        Gram matrix X1'X1 (p+1 X p+1) under condition 1
+     * @param G2        Gram matrix X2'X2 (p+1 X p+1) under condition 2
+     * @param node      the variable used as response variable
+     * @param lambda1   penalty parameter that promotes sparsity in the learned
+     *                  structure
+     * @param lambda2   penalty parameter that promotes sparse changes between
+     *                  two conditions
+     * @param beta1     initial value of beta1 under condition 1
+     * @param beta2     initial value of beta2 under condition 2
+     * @return          the solver for the node
+     */
+    public static BCD covariance(double[][] G1, double[][] G2, int node, double[] lambda1, double lambda2, double[] beta1, double[] beta2) {
+
+		BCD solver = covariance(G1, G2, node, lambda1, lambda2);
+		int p = solver.p;
+		System.arraycopy(beta1, 0, solver.beta1, 0, p);
+		System.arraycopy(beta2, 0, solver.beta2, 0, p);
+		System.arraycopy(beta1, 0, solver.beta, 0, p);
+		System.arraycopy(beta2, 0, solver.beta, p, p);
+		return solver;
+
+    }
+
+    /**
+     * Solves the 2-d sub-problem of the coordinate block given the partial
+     * residual correlations rho1 and rho2.
+     */
+    private double[] solve2d(double rho1, double rho2, int k) {
+		double b1 = 0;
+		double b2 = 0;
 	
 		b1 = 0;
 		b2 = 0;
@@ -220,6 +510,31 @@ public class BCD {
 		return b;
     }
 
+    /**
+     * Sets whether the solver iterates on the active set between full sweeps.
+     * A full sweep discovers the support, the nonzero coordinates are then
+     * iterated to convergence on their own, and the next full sweep checks
+     * the optimality of the inactive coordinates.
+     *
+     * @param activeSet <code>true</code> to use active-set iterations
+     */
+    public void setActiveSet(boolean activeSet) {
+		this.activeSet = activeSet;
+    }
+
+    /**
+     * Sets whether the solver screens coordinates with the strong rule before
+     * solving. Coordinates whose marginal correlations with y fall below the
+     * rule are left out, and are checked against the KKT conditions once the
+     * reduced problem converges; violators are added back and the problem is
+     * solved again.
+     *
+     * @param screening <code>true</code> to use strong-rule screening
+     */
+    public void setScreening(boolean screening) {
+		this.screening = screening;
+    }
+
     /**
      * Solves the optimization problem using block-wise coordinate descent algorithm.
      * 
@@ -228,83 +543,433 @@ public class BCD {
      */
     public boolean solve() {
 
+		if (covariance) {
+		    initCovariance();
+		} else {
+		    initResiduals();
+		}
+
+		// coordinates are visited in the order 1, 2, ..., p-1, 0
+		boolean[] discarded = new boolean[p];
+		eliminated = new boolean[p];
+		if (screening) {
+		    strongRule(discarded);
+		}
+		int[] working = new int[p];
+		int numWorking = 0;
+		for (int i = 0; i < p; i ++) {
+		    int k = (i + 1) % p;
+		    if (!discarded[k]) {
+			working[numWorking] = k;
+			numWorking ++;
+		    }
+		}
+
 		boolean isStop = false;
-		int r = 0;
-		double[] beta1_old = new double[p];
-		double[] beta2_old = new double[p];
-		double[] x1 = new double[n1];
-		double[] x2 = new double[n2];
-		double[] z1 = new double[n1];
-		double[] z2 = new double[n2];
-	
-		if (p == 1) {
-	
-		    for (int m = 0; m < n1; m ++) {
-			x1[m] = X1[m][0];
+		while (!isStop) {
+
+		    sweep(working, numWorking);
+
+		    // KKT check, a discarded coordinate that moves violates the rule;
+		    // coordinates eliminated by the gap-safe rule are checked too, as
+		    // they were proven zero only for the problem restricted to the
+		    // working set, which grows with every violator added back
+		    isStop = true;
+		    for (int k = 0; k < p; k ++) {
+			if ((discarded[k] || eliminated[k]) && update(k) != 0) {
+			    discarded[k] = false;
+			    eliminated[k] = false;
+			    isStop = false;
+			}
 		    }
-		    for (int m = 0; m < n2; m ++) {
-			x2[m] = X2[m][0];
+		    if (!isStop) {
+			numWorking = 0;
+			for (int i = 0; i < p; i ++) {
+			    int k = (i + 1) % p;
+			    if (!discarded[k] && !eliminated[k]) {
+				working[numWorking] = k;
+				numWorking ++;
+			    }
+			}
 		    }
-		    beta = solve2d(y1, y2, x1, x2, 1);
+		}
 	
-		}else {
+		return true;
+    }
+
+    /**
+     * Runs coordinate descent over the given coordinates until a full sweep
+     * changes beta by less than the tolerance, or, when a duality gap is
+     * requested, until the gap of the problem restricted to these coordinates
+     * is small enough.
+     */
+    private void sweep(int[] working, int numWorking) {
+
+		boolean isStop = false;
+		double tolerance = 0.00001*p*2;
+		int[] active = new int[numWorking];
 	
-		    while (!isStop) {
+		while (!isStop) {
 	
-			for (int i = 0; i < p; i ++ ) {
-			    beta1_old[i] = beta1[i];
-			    beta2_old[i] = beta2[i];
-			}
-			for (int i = 0; i < p; i ++) {
-			    r = r + 1;
-			    int k = r % p;
-			    
-			    for (int m = 0; m < n1; m ++) {
-				x1[m] = X1[m][k];
-			    }
-			    for (int m = 0; m < n2; m ++) {
-				x2[m] = X2[m][k];
-			    }
-			    
-			    //	double y_residual = y - X[, c(-k, -p-k)] %*% matrix(beta[c(-k, -p-k)], nrow=2*p-2, ncol=1);
-			    for (int m = 0; m < n1; m ++) {
-				z1[m] = y1[m];
-				for (int n = 0; n < p; n ++) {
-				    if (n != k) {
-					z1[m] = z1[m] - X1[m][n] * beta1[n];
-				    }
-				}
-				
-			    }
+		    double changeInBeta = 0;
+		    for (int i = 0; i < numWorking; i ++) {
+			changeInBeta += update(working[i]);
+		    }
 	
-			    for (int m = 0; m < n2; m ++) {
-				z2[m] = y2[m];
-				for (int n = 0; n < p; n ++) {
-				    if (n != k) {
-					z2[m] = z2[m] - X2[m][n] * beta2[n];
-				    }
-				}
-				
-			    }
+		    if (gapTolerance > 0) {
+			numWorking = gapSafeScreening(working, numWorking);
+			// also stop once beta no longer moves, in case rounding keeps
+			// the gap above a very small request
+			isStop = dualityGap <= gapTolerance || changeInBeta < tolerance * 1e-6;
+		    } else {
+			isStop = changeInBeta < tolerance;
+		    }
 	
-			    double[] beta2d = solve2d(z1, z2, x1, x2, k);
-			    beta1[k] = beta2d[0];
-			    beta2[k] = beta2d[1];
+		    if (!isStop && activeSet) {
+			int numActive = 0;
+			for (int i = 0; i < numWorking; i ++) {
+			    int k = working[i];
+			    if (beta1[k] != 0 || beta2[k] != 0) {
+				active[numActive] = k;
+				numActive ++;
+			    }
 			}
 	
-	
-			double changeInBeta = 0;
-			for (int m = 0; m < p; m ++ ) {
-			    changeInBeta += Math.abs(beta1[m] - beta1_old[m]) + Math.abs(beta2[m] - beta2_old[m]);
+			double changeInActive = tolerance;
+			while (changeInActive >= tolerance) {
+			    changeInActive = 0;
+			    for (int i = 0; i < numActive; i ++) {
+				changeInActive += update(active[i]);
+			    }
+			}
+		    }
+		}
+    }
+
+    /**
+     * Marks the coordinates discarded by the strong rule. With s[k] the dual
+     * norm of the marginal correlations (X1'y1, X2'y2) under the penalty of
+     * block k, coordinate k is discarded when s[k] < 2 - max(s), the
+     * weighted lasso strong rule. Coordinates that are already nonzero are
+     * always kept.
+     */
+    private void strongRule(boolean[] discarded) {
+		double[] s = new double[p];
+		double sMax = 0;
+		double[] xy1 = null;
+		double[] xy2 = null;
+		double sy1 = 0;
+		double sy2 = 0;
+		if (!covariance) {
+		    xy1 = MatrixKernels.gemvT(X1, y1);
+		    xy2 = MatrixKernels.gemvT(X2, y2);
+		    for (int m = 0; m < n1; m ++) {
+			sy1 += y1[m];
+		    }
+		    for (int m = 0; m < n2; m ++) {
+			sy2 += y2[m];
+		    }
+		}
+		for (int k = 0; k < p; k ++) {
+		    double u = 0;
+		    double v = 0;
+		    if (covariance) {
+			u = c1[k];
+			v = c2[k];
+		    } else {
+			int c = cols[k];
+			u = (xy1[c] - center1[c] * sy1) * scale1[c];
+			v = (xy2[c] - center2[c] * sy2) * scale2[c];
+		    }
+		    s[k] = dualNorm(u, v, k);
+		    sMax = Math.max(sMax, s[k]);
+		}
+
+		for (int k = 0; k < p; k ++) {
+		    discarded[k] = s[k] < 2 - sMax && beta1[k] == 0 && beta2[k] == 0;
+		}
+    }
+
+    /**
+     * Dual norm of the penalty of block k, lambda1[k]*|b1| + lambda1[k+p]*|b2|
+     * + lambda2*|b1-b2|, evaluated at (u, v). The unit ball of the penalty has
+     * its vertices on the directions (1,0), (0,1) and (1,1), so the block stays
+     * at zero exactly when this is at most 1.
+     */
+    private double dualNorm(double u, double v, int k) {
+		double d = ratio(Math.abs(u), lambda1[k] + lambda2);
+		d = Math.max(d, ratio(Math.abs(v), lambda1[k+p] + lambda2));
+		d = Math.max(d, ratio(Math.abs(u + v), lambda1[k] + lambda1[k+p]));
+		return d;
+    }
+
+    /**
+     * Returns an array of n ones.
+     */
+    private static double[] ones(int n) {
+		double[] a = new double[n];
+		Arrays.fill(a, 1);
+		return a;
+    }
+
+    /**
+     * Returns a / b for a >= 0, treating b = 0 as an unbounded ratio.
+     */
+    private static double ratio(double a, double b) {
+		if (b > 0) {
+		    return a / b;
+		}
+		return a > 0 ? Double.POSITIVE_INFINITY : 0;
+    }
+
+    /**
+     * Computes the duality gap of the problem restricted to the working
+     * coordinates and removes the coordinates that the gap-safe rule proves
+     * to be zero at the optimum. Returns the new number of working
+     * coordinates.
+     *
+     * The dual point is the residual scaled into the dual feasible set,
+     * theta = s * r with s = min(1, 1 / max_k dualNorm(X_k' r)). The dual
+     * objective is 1-strongly concave, so the optimal dual point lies within
+     * sqrt(2 * gap) of theta, and block k is zero at the optimum whenever
+     * dualNorm(X_k' theta) + sqrt(2 * gap) * (bound of dualNorm over the
+     * unit ball mapped by X_k) < 1.
+     */
+    private int gapSafeScreening(int[] working, int numWorking) {
+		double[] u1 = new double[numWorking];
+		double[] u2 = new double[numWorking];
+		double rr = 0;
+		double penalty = 0;
+		double bu = 0;
+		double dualMax = 0;
+
+		if (covariance) {
+		    double by1 = 0;
+		    double by2 = 0;
+		    for (int k = 0; k < p; k ++) {
+			by1 += beta1[k] * (2 * c1[k] - q1[k]);
+			by2 += beta2[k] * (2 * c2[k] - q2[k]);
+		    }
+		    rr = yy1 - by1 + yy2 - by2;
+		} else {
+		    for (int m = 0; m < n1; m ++) {
+			rr += r1[m] * r1[m];
+		    }
+		    for (int m = 0; m < n2; m ++) {
+			rr += r2[m] * r2[m];
+		    }
+		}
+
+		for (int i = 0; i < numWorking; i ++) {
+		    int k = working[i];
+		    if (covariance) {
+			u1[i] = c1[k] - q1[k];
+			u2[i] = c2[k] - q2[k];
+		    } else {
+			int c = cols[k];
+			double mu1 = center1[c];
+			double mu2 = center2[c];
+			for (int m = 0; m < n1; m ++) {
+			    u1[i] += (X1[m][c] - mu1) * r1[m];
 			}
-			if (changeInBeta < 0.00001*p*2) {
-			    isStop = true;
+			for (int m = 0; m < n2; m ++) {
+			    u2[i] += (X2[m][c] - mu2) * r2[m];
 			}
+			u1[i] *= scale1[c];
+			u2[i] *= scale2[c];
 		    }
-	
-		} 
-	
-		return true;
+		    penalty += lambda1[k] * Math.abs(beta1[k]) + lambda1[k+p] * Math.abs(beta2[k])
+			+ lambda2 * Math.abs(beta1[k] - beta2[k]);
+		    bu += beta1[k] * u1[i] + beta2[k] * u2[i];
+		    dualMax = Math.max(dualMax, dualNorm(u1[i], u2[i], k));
+		}
+
+		if (Double.isInfinite(dualMax)) {
+		    // no feasible scaling of the residual, e.g. an unpenalized block
+		    dualityGap = Double.POSITIVE_INFINITY;
+		    return numWorking;
+		}
+
+		double scale = dualMax > 1 ? 1 / dualMax : 1;
+		double primal = 0.5 * rr + penalty;
+		double dual = scale * (rr + bu) - 0.5 * scale * scale * rr;
+		dualityGap = Math.max(primal - dual, 0);
+
+		double radius = Math.sqrt(2 * dualityGap);
+		int numKept = 0;
+		for (int i = 0; i < numWorking; i ++) {
+		    int k = working[i];
+		    double bound = ratio(Math.sqrt(s1[k]), lambda1[k] + lambda2);
+		    bound = Math.max(bound, ratio(Math.sqrt(s2[k]), lambda1[k+p] + lambda2));
+		    bound = Math.max(bound, ratio(Math.sqrt(s1[k] + s2[k]), lambda1[k] + lambda1[k+p]));
+		    // the margin keeps rounding from removing blocks on the boundary
+		    if (dualNorm(scale * u1[i], scale * u2[i], k) + radius * bound < 1 - 1e-9) {
+			move(k, 0, 0);
+			eliminated[k] = true;
+		    } else {
+			working[numKept] = k;
+			numKept ++;
+		    }
+		}
+
+		return numKept;
+    }
+
+    /**
+     * Returns the duality gap certified when the solver stopped, or
+     * <code>NaN</code> if the duality gap stopping rule was not used.
+     *
+     * @return     the duality gap
+     */
+    public double getDualityGap() {
+		return dualityGap;
+    }
+
+    /**
+     * Sets the duality gap at which the solver stops. Zero keeps the
+     * default rule on the change in beta.
+     *
+     * @param gapTolerance  requested duality gap
+     */
+    public void setDualityGap(double gapTolerance) {
+		this.gapTolerance = gapTolerance;
+    }
+
+    /**
+     * Updates the coordinate block k and returns the change in beta.
+     */
+    private double update(int k) {
+		double rho1 = 0;
+		double rho2 = 0;
+
+		if (covariance) {
+		    rho1 = c1[k] - q1[k] + s1[k] * beta1[k];
+		    rho2 = c2[k] - q2[k] + s2[k] * beta2[k];
+		} else {
+		    // x_k' * (y - X[, -k] * beta[-k]) = x_k' * r + ||x_k||^2 * beta[k]
+		    int c = cols[k];
+		    double mu1 = center1[c];
+		    double mu2 = center2[c];
+		    for (int m = 0; m < n1; m ++) {
+			rho1 = rho1 + (X1[m][c] - mu1) * r1[m];
+		    }
+		    for (int m = 0; m < n2; m ++) {
+			rho2 = rho2 + (X2[m][c] - mu2) * r2[m];
+		    }
+		    rho1 = s1[k] * beta1[k] + scale1[c] * rho1;
+		    rho2 = s2[k] * beta2[k] + scale2[c] * rho2;
+		}
+
+		double[] beta2d = solve2d(rho1, rho2, k);
+
+		return move(k, beta2d[0], beta2d[1]);
+    }
+
+    /**
+     * Sets the coordinate block k to (b1, b2), keeps the residuals in step,
+     * and returns the change in beta.
+     */
+    private double move(int k, double b1, double b2) {
+
+		// residuals only move when the coordinate does
+		double d1 = b1 - beta1[k];
+		double d2 = b2 - beta2[k];
+		if (d1 != 0) {
+		    if (covariance) {
+			addRow(G1, k, d1, q1);
+		    } else {
+			int c = cols[k];
+			double mu = center1[c];
+			double a = scale1[c] * d1;
+			for (int m = 0; m < n1; m ++) {
+			    r1[m] = r1[m] - (X1[m][c] - mu) * a;
+			}
+		    }
+		    beta1[k] = b1;
+		}
+		if (d2 != 0) {
+		    if (covariance) {
+			addRow(G2, k, d2, q2);
+		    } else {
+			int c = cols[k];
+			double mu = center2[c];
+			double a = scale2[c] * d2;
+			for (int m = 0; m < n2; m ++) {
+			    r2[m] = r2[m] - (X2[m][c] - mu) * a;
+			}
+		    }
+		    beta2[k] = b2;
+		}
+
+		return Math.abs(d1) + Math.abs(d2);
+    }
+
+    /**
+     * Sets up the running residuals r = y - X * beta and the squared column
+     * norms for the data-matrix path.
+     */
+    private void initResiduals() {
+		r1 = new double[n1];
+		r2 = new double[n2];
+		s1 = new double[p];
+		s2 = new double[p];
+
+		for (int m = 0; m < n1; m ++) {
+		    double[] x = X1[m];
+		    r1[m] = y1[m];
+		    for (int n = 0; n < p; n ++) {
+			int c = cols[n];
+			double v = (x[c] - center1[c]) * scale1[c];
+			r1[m] = r1[m] - v * beta1[n];
+			s1[n] = s1[n] + v * v;
+		    }
+		}
+		for (int m = 0; m < n2; m ++) {
+		    double[] x = X2[m];
+		    r2[m] = y2[m];
+		    for (int n = 0; n < p; n ++) {
+			int c = cols[n];
+			double v = (x[c] - center2[c]) * scale2[c];
+			r2[m] = r2[m] - v * beta2[n];
+			s2[n] = s2[n] + v * v;
+		    }
+		}
+    }
+
+    /**
+     * Sets up q1 = G1 * beta1 and q2 = G2 * beta2 for the covariance-update
+     * path, where the partial residual correlation of coordinate k is
+     * c[k] - q[k] + G[k][k] * beta[k].
+     */
+    private void initCovariance() {
+		q1 = new double[p];
+		q2 = new double[p];
+		s1 = new double[p];
+		s2 = new double[p];
+
+		for (int k = 0; k < p; k ++) {
+		    s1[k] = G1[cols[k]][cols[k]];
+		    s2[k] = G2[cols[k]][cols[k]];
+		}
+
+		for (int k = 0; k < p; k ++) {
+		    if (beta1[k] != 0) {
+			addRow(G1, k, beta1[k], q1);
+		    }
+		    if (beta2[k] != 0) {
+			addRow(G2, k, beta2[k], q2);
+		    }
+		}
+    }
+
+    /**
+     * Adds a * G[k] to q. G is symmetric, so row k equals column k.
+     */
+    private void addRow(double[][] G, int k, double a, double[] q) {
+		double[] g = G[cols[k]];
+		for (int j = 0; j < p; j ++) {
+		    q[j] += a * g[cols[j]];
+		}
     }
 
     /**
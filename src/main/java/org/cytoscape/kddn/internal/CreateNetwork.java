@@ -87,6 +87,10 @@ public class CreateNetwork {
 		kddnNet.getDefaultNetworkTable().createColumn("lambda_1", Double.class, true, 0.2d);
 		kddnNet.getDefaultNetworkTable().getRow(kddnNet.getSUID()).set("lambda_1", experiment.lambda1);
 		
+		// add random seed column to network table
+		kddnNet.getDefaultNetworkTable().createColumn("seed", Long.class, true, 0L);
+		kddnNet.getDefaultNetworkTable().getRow(kddnNet.getSUID()).set("seed", experiment.seed);
+		
 		// add applicable columns to network table 
 		if(twoCondition) {
 			kddnNet.getDefaultNetworkTable().createColumn("lambda_2", Double.class, true, 0.05d);
@@ -53,6 +53,7 @@ public class CyActivator extends AbstractCyActivator {
 	protected static int totalNumberRun = 0;
 	protected static KddnConfigurePanel kddnConfigurePanel;
 	protected static CyHelpBroker cyHelpBroker;
+	protected static DialogTaskManager dialogTaskManager;
 	
 	public CyActivator() {
 		super();
@@ -63,6 +64,9 @@ public class CyActivator extends AbstractCyActivator {
 		
 		CySwingApplication cytoscapeDesktopService = getService(bc,CySwingApplication.class);
 
+		// thread pool shared by all computations
+		KddnExecutor.startShared(KddnExecutor.defaultParallelism());
+
 		// register visualization related managers to Cytoscape
 		// network creation
 		CyNetworkManager cyNetworkManagerServiceRef = getService(bc,CyNetworkManager.class);
@@ -70,7 +74,7 @@ public class CyActivator extends AbstractCyActivator {
 		CyNetworkFactory cyNetworkFactoryServiceRef = getService(bc,CyNetworkFactory.class);
 		
 		// progress dialog
-		DialogTaskManager dialogTaskManager = getService(bc, DialogTaskManager.class);
+		dialogTaskManager = getService(bc, DialogTaskManager.class);
 		
 		// view creation
 		CyNetworkViewFactory networkViewFactory = getService(bc, CyNetworkViewFactory.class);
@@ -126,5 +130,12 @@ public class CyActivator extends AbstractCyActivator {
 			System.err.println("Could not find help set: \"" + HELP_SET_NAME + ".");
 		}
 	}
+	
+	@Override
+	public void stop(BundleContext bc) {
+		KddnCluster.shutdownShared();
+		KddnExecutor.shutdownShared();
+		super.stop(bc);
+	}
 
 }
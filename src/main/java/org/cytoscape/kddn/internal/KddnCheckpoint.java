@@ -0,0 +1,466 @@
+/*
+ * Copyright (C) 2026 agent
+ *
+ * This file is part of KDDN app for Cytoscape.
+ *
+ * KDDN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * KDDN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with KDDN. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cytoscape.kddn.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Progress of a run, so a finished run can be continued with more
+ * permutations. When asked for, it is also kept in a local file, so a run
+ * stopped by a crash or a closed session resumes where it was. The file is
+ * named after a hash of the input data and parameters; a later run with the
+ * same input picks it up and takes over its seed, so the permutations it
+ * adds are new ones. The file is deleted once the run has finished.
+ *
+ * Random streams are indexed by task (see SplitRandom), so the state of a
+ * stage is the number of tasks done and what they accumulated.
+ * @author agent
+ *
+ */
+public class KddnCheckpoint {
+
+	/**
+	 * system property setting the checkpoint directory, defaults to
+	 * .kddn/checkpoints under the user home
+	 */
+	public static final String DIRECTORY_PROPERTY = "kddn.checkpoint.dir";
+
+	/**
+	 * system property turning checkpoint files on when true
+	 */
+	public static final String ENABLED_PROPERTY = "kddn.checkpoint";
+
+	private static final int MAGIC = 0x4b44444e;
+	private static final int VERSION = 4;
+
+	/**
+	 * shortest time between two writes of the file in milliseconds
+	 */
+	private static final long INTERVAL = 30000;
+
+	private final File file;
+	private final long key;
+	private long lastSave = 0;
+	private boolean persistent = false; // written to the file
+	private boolean resumed = false; // read from the file
+
+	public long seed = 0;
+
+	/**
+	 * lambda 2 search, permutations done, mean of their lambda 2 and sum
+	 * of squares about it, network solves they took and the bracket the
+	 * next one starts from
+	 */
+	public int lambda2Count = 0;
+	public double lambda2Mean = 0;
+	public double lambda2M2 = 0;
+	public int lambda2Solves = 0;
+	public double lambda2Mid = 0;
+	public double lambda2Low = 0;
+	public double lambda2High = 0;
+
+	/**
+	 * theta search, bisection steps done and their state
+	 */
+	public int thetaSteps = 0;
+	public double thetaHigh = 0;
+	public double thetaLow = 0;
+	public double thetaMid = 0;
+	public double thetaDeviation = 0;
+	public double thetaRemaining = 0;
+	public double thetaPortion = 0;
+
+	/**
+	 * permutation p-values, counts of the permutations done; pvalueKey
+	 * identifies the settings they were run with
+	 */
+	public long pvalueKey = 0;
+	public int permutations = 0;
+	public int[][] permNet = null;
+	public int[] numSolved = null;
+	public boolean[] solveNode = null;
+	public double[][] dirPerm = null; // tail statistics of the permutations done
+	public int[][] chainId = null; // current permutation of each swap chain
+	public long[] chainState = null; // random stream of each swap chain
+
+	private KddnCheckpoint(File file, long key, long seed) {
+		this.file = file;
+		this.key = key;
+		this.seed = seed;
+	}
+
+	/**
+	 * Checkpoint of a run kept in memory only
+	 * @param key hash of the input, from key()
+	 * @param seed seed of the run
+	 * @return
+	 */
+	public static KddnCheckpoint create(long key, long seed) {
+		return new KddnCheckpoint(fileOf(key), key, seed);
+	}
+
+	/**
+	 * Checkpoint of a run kept in its file, read from the file if there is
+	 * one
+	 * @param key hash of the input, from key()
+	 * @param seed seed of a new run
+	 * @param adoptSeed whether a saved run with another seed is resumed
+	 * @return
+	 */
+	public static KddnCheckpoint open(long key, long seed, boolean adoptSeed) {
+
+		File file = fileOf(key);
+		if(file.isFile()) {
+			KddnCheckpoint saved = new KddnCheckpoint(file, key, seed);
+			try {
+				saved.read();
+				if(adoptSeed || saved.seed == seed) {
+					saved.persistent = true;
+					saved.resumed = true;
+					return saved;
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+
+		KddnCheckpoint checkpoint = new KddnCheckpoint(file, key, seed);
+		checkpoint.persistent = true;
+		return checkpoint;
+	}
+
+	/**
+	 * Whether checkpoint files are asked for by the system property
+	 * @return
+	 */
+	public static boolean enabled() {
+		return Boolean.getBoolean(ENABLED_PROPERTY);
+	}
+
+	private static File fileOf(long key) {
+		File dir = new File(System.getProperty(DIRECTORY_PROPERTY,
+				System.getProperty("user.home") + File.separator + ".kddn"
+				+ File.separator + "checkpoints"));
+		return new File(dir, "run-" + Long.toHexString(key) + ".ckpt");
+	}
+
+	/**
+	 * Whether the progress was read from the file of an earlier run
+	 * @return
+	 */
+	public boolean isResumed() {
+		return resumed;
+	}
+
+	/**
+	 * The file the checkpoint is kept in
+	 * @return
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Keep the checkpoint in its file from now on
+	 */
+	public synchronized void persist() {
+		persistent = true;
+	}
+
+	/**
+	 * Delete the file of a finished run; the progress stays in memory, so
+	 * the run can still be continued
+	 */
+	public synchronized void delete() {
+		persistent = false;
+		file.delete();
+		new File(file.getPath() + ".tmp").delete();
+	}
+
+	/**
+	 * Copy for a run continuing this one, which then leaves this one as
+	 * it is
+	 * @return
+	 */
+	public synchronized KddnCheckpoint copy() {
+
+		KddnCheckpoint c = new KddnCheckpoint(file, key, seed);
+		c.lambda2Count = lambda2Count;
+		c.lambda2Mean = lambda2Mean;
+		c.lambda2M2 = lambda2M2;
+		c.lambda2Solves = lambda2Solves;
+		c.lambda2Mid = lambda2Mid;
+		c.lambda2Low = lambda2Low;
+		c.lambda2High = lambda2High;
+		c.thetaSteps = thetaSteps;
+		c.thetaHigh = thetaHigh;
+		c.thetaLow = thetaLow;
+		c.thetaMid = thetaMid;
+		c.thetaDeviation = thetaDeviation;
+		c.thetaRemaining = thetaRemaining;
+		c.thetaPortion = thetaPortion;
+		c.pvalueKey = pvalueKey;
+		c.permutations = permutations;
+		c.permNet = copy(permNet);
+		c.numSolved = numSolved == null ? null : numSolved.clone();
+		c.solveNode = solveNode == null ? null : solveNode.clone();
+		c.dirPerm = copy(dirPerm);
+		c.chainId = copy(chainId);
+		c.chainState = chainState == null ? null : chainState.clone();
+		return c;
+	}
+
+	private static int[][] copy(int[][] a) {
+		if(a == null)
+			return null;
+		int[][] b = new int[a.length][];
+		for(int i=0; i<a.length; i++)
+			b[i] = a[i].clone();
+		return b;
+	}
+
+	private static double[][] copy(double[][] a) {
+		if(a == null)
+			return null;
+		double[][] b = new double[a.length][];
+		for(int i=0; i<a.length; i++)
+			b[i] = a[i].clone();
+		return b;
+	}
+
+	/**
+	 * Hash of the input of a run
+	 * @param d1
+	 * @param d2
+	 * @param varList
+	 * @param W
+	 * @param parameters parameters as given, -1 for automatic
+	 * @return
+	 */
+	public static long key(double[][] d1, double[][] d2, String[] varList,
+			int[][] W, double... parameters) {
+
+		long h = hash(0xcbf29ce484222325L, d1.length);
+		h = hash(h, d2.length);
+		for(double[] x : d1)
+			for(double v : x)
+				h = hash(h, Double.doubleToLongBits(v));
+		for(double[] x : d2)
+			for(double v : x)
+				h = hash(h, Double.doubleToLongBits(v));
+		for(String s : varList)
+			h = hash(h, s.hashCode());
+		for(int[] w : W)
+			for(int v : w)
+				h = hash(h, v);
+		for(double v : parameters)
+			h = hash(h, Double.doubleToLongBits(v));
+		return h;
+	}
+
+	/**
+	 * Hash of the settings permutation counts depend on
+	 * @param s
+	 * @param numDif number of differential edges
+	 * @return
+	 */
+	public static long settingsKey(KddnSettings s, int numDif) {
+
+		long h = hash(0xcbf29ce484222325L, s.p);
+		h = hash(h, numDif);
+		h = hash(h, s.seed);
+		h = hash(h, Double.doubleToLongBits(s.lambda1));
+		h = hash(h, Double.doubleToLongBits(s.lambda2));
+		h = hash(h, Double.doubleToLongBits(s.theta));
+		h = hash(h, s.targetedPermutation ? 1 : 0);
+		h = hash(h, s.permutationExceedances);
+		h = hash(h, s.tailPvalue ? 1 : 0);
+		h = hash(h, s.permutationSwaps);
+		h = hash(h, s.warmPermutation ? 1 : 0);
+		return h;
+	}
+
+	private static long hash(long h, long v) {
+		h = (h ^ v) * 0x100000001b3L;
+		return h ^ (h >>> 29);
+	}
+
+	/**
+	 * Whether the saved permutation counts belong to these settings
+	 * @param pvalueKey
+	 * @return
+	 */
+	public boolean hasPermutations(long pvalueKey) {
+		return permutations > 0 && this.pvalueKey == pvalueKey;
+	}
+
+	/**
+	 * Write the file if the last write is long enough ago. A failed write
+	 * is reported and the run goes on. Nothing is written for a checkpoint
+	 * kept in memory only.
+	 * @param force write anyway
+	 */
+	public synchronized void save(boolean force) {
+
+		if(!persistent)
+			return;
+		long now = System.currentTimeMillis();
+		if(!force && now - lastSave < INTERVAL)
+			return;
+		lastSave = now;
+
+		// write a new file and rename it, a crash while writing leaves the
+		// previous checkpoint intact
+		File tmp = new File(file.getPath() + ".tmp");
+		try {
+			file.getParentFile().mkdirs();
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+					new GZIPOutputStream(new FileOutputStream(tmp))));
+			try {
+				write(out);
+			} finally {
+				out.close();
+			}
+			if(!tmp.renameTo(file)) {
+				file.delete();
+				if(!tmp.renameTo(file))
+					throw new IOException("Cannot write " + file);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void write(DataOutputStream out) throws IOException {
+
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(key);
+		out.writeLong(seed);
+
+		out.writeInt(lambda2Count);
+		out.writeDouble(lambda2Mean);
+		out.writeDouble(lambda2M2);
+		out.writeInt(lambda2Solves);
+		out.writeDouble(lambda2Mid);
+		out.writeDouble(lambda2Low);
+		out.writeDouble(lambda2High);
+
+		out.writeInt(thetaSteps);
+		out.writeDouble(thetaHigh);
+		out.writeDouble(thetaLow);
+		out.writeDouble(thetaMid);
+		out.writeDouble(thetaDeviation);
+		out.writeDouble(thetaRemaining);
+		out.writeDouble(thetaPortion);
+
+		out.writeLong(pvalueKey);
+		out.writeInt(permNet == null ? 0 : permutations);
+		if(permNet == null)
+			return;
+		int p = permNet.length;
+		out.writeInt(p);
+		for(int i=0; i<p; i++) {
+			out.writeInt(numSolved[i]);
+			out.writeBoolean(solveNode[i]);
+			for(int j=0; j<p; j++)
+				out.writeInt(permNet[i][j]);
+		}
+		out.writeInt(dirPerm == null ? 0 : dirPerm.length);
+		for(int e=0; dirPerm != null && e<dirPerm.length; e++)
+			for(int b=0; b<permutations; b++)
+				out.writeDouble(dirPerm[e][b]);
+		out.writeInt(chainId == null ? 0 : chainId.length);
+		for(int c=0; chainId != null && c<chainId.length; c++) {
+			out.writeLong(chainState[c]);
+			out.writeInt(chainId[c].length);
+			for(int v : chainId[c])
+				out.writeInt(v);
+		}
+	}
+
+	private void read() throws IOException {
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new GZIPInputStream(new FileInputStream(file))));
+		try {
+			if(in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != key)
+				throw new IOException("Not a checkpoint of this run: " + file);
+			seed = in.readLong();
+
+			lambda2Count = in.readInt();
+			lambda2Mean = in.readDouble();
+			lambda2M2 = in.readDouble();
+			lambda2Solves = in.readInt();
+			lambda2Mid = in.readDouble();
+			lambda2Low = in.readDouble();
+			lambda2High = in.readDouble();
+
+			thetaSteps = in.readInt();
+			thetaHigh = in.readDouble();
+			thetaLow = in.readDouble();
+			thetaMid = in.readDouble();
+			thetaDeviation = in.readDouble();
+			thetaRemaining = in.readDouble();
+			thetaPortion = in.readDouble();
+
+			pvalueKey = in.readLong();
+			permutations = in.readInt();
+			if(permutations == 0)
+				return;
+			int p = in.readInt();
+			permNet = new int[p][p];
+			numSolved = new int[p];
+			solveNode = new boolean[p];
+			for(int i=0; i<p; i++) {
+				numSolved[i] = in.readInt();
+				solveNode[i] = in.readBoolean();
+				for(int j=0; j<p; j++)
+					permNet[i][j] = in.readInt();
+			}
+			int numDir = in.readInt();
+			dirPerm = numDir == 0 ? null : new double[numDir][permutations];
+			for(int e=0; e<numDir; e++)
+				for(int b=0; b<permutations; b++)
+					dirPerm[e][b] = in.readDouble();
+			int numChain = in.readInt();
+			chainId = numChain == 0 ? null : new int[numChain][];
+			chainState = numChain == 0 ? null : new long[numChain];
+			for(int c=0; c<numChain; c++) {
+				chainState[c] = in.readLong();
+				chainId[c] = new int[in.readInt()];
+				for(int m=0; m<chainId[c].length; m++)
+					chainId[c][m] = in.readInt();
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+}
@@ -0,0 +1,562 @@
+/*
+ * Copyright (C) 2026 agent
+ *
+ * This file is part of KDDN app for Cytoscape.
+ *
+ * KDDN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * KDDN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with KDDN. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cytoscape.kddn.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.apache.commons.math3.stat.inference.TTest;
+
+/**
+ * Worker JVMs on this machine, each with its own heap, that solve
+ * permutation batches and node ranges for the coordinating JVM (see
+ * KddnWorker for the protocol). The data of a job are sent to each worker
+ * once; batches are then handed out as workers become free and their
+ * counts merged as they come back. A batch lost with its worker is solved
+ * in this JVM, and results never depend on which process solved what.
+ *
+ * The shared cluster is started on first use when the system property
+ * kddn.workers is positive and stopped with the app.
+ * @author agent
+ *
+ */
+public class KddnCluster {
+
+	/**
+	 * system property setting the number of worker JVMs, 0 for none
+	 */
+	public static final String WORKERS_PROPERTY = "kddn.workers";
+
+	/**
+	 * system property setting the class path of the workers, defaults to
+	 * the jar or directory of this class and commons-math3, which is
+	 * extracted when the jar embeds it
+	 */
+	public static final String CLASSPATH_PROPERTY = "kddn.worker.classpath";
+
+	/**
+	 * system property with extra JVM options of the workers, e.g. -Xmx8g
+	 */
+	public static final String OPTIONS_PROPERTY = "kddn.worker.options";
+
+	/**
+	 * time to wait for the workers to connect in milliseconds
+	 */
+	private static final int CONNECT_TIMEOUT = 60000;
+
+	private static KddnCluster shared = null;
+	private static boolean sharedFailed = false;
+
+	private final List<Process> processes;
+	private final List<Worker> workers;
+	private final ExecutorService io;
+
+	/**
+	 * Connection to one worker. A thread holds its lock from sending a
+	 * message to reading the answer, so runs sharing the cluster never
+	 * interleave their messages.
+	 */
+	private static class Worker {
+		final Socket socket;
+		final DataInputStream in;
+		final DataOutputStream out;
+		PermutationJob job = null; // job the worker has
+		KddnSettings network = null; // network the worker has
+		boolean alive = true;
+
+		Worker(Socket socket) throws IOException {
+			this.socket = socket;
+			this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		}
+	}
+
+	private KddnCluster(List<Process> processes, List<Worker> workers) {
+		this.processes = processes;
+		this.workers = workers;
+		this.io = Executors.newFixedThreadPool(workers.size(), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "kddn-cluster-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Start worker JVMs on this machine and wait for them to connect
+	 * @param n number of workers
+	 * @return
+	 * @throws IOException if a worker cannot be started or does not connect
+	 */
+	public static KddnCluster launch(int n) throws IOException {
+
+		String classPath = classPath();
+		if(classPath == null)
+			throw new IOException("Cannot find the class path of the workers, set " 
+					+ CLASSPATH_PROPERTY);
+
+		ServerSocket server = new ServerSocket(0, n, InetAddress.getByName(null));
+		String token = Long.toHexString(new SplitRandom(SplitRandom.newSeed()).nextLong());
+		List<Process> processes = new ArrayList<Process>(n);
+		List<Worker> workers = new ArrayList<Worker>(n);
+		try {
+			// cores are shared out between the workers unless set otherwise
+			int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / n);
+			List<String> command = new ArrayList<String>();
+			command.add(System.getProperty("java.home") + File.separator + "bin"
+					+ File.separator + "java");
+			command.add("-D" + KddnExecutor.PARALLELISM_PROPERTY + "=" + threads);
+			for(String o : System.getProperty(OPTIONS_PROPERTY, "").trim().split("\\s+"))
+				if(o.length() > 0)
+					command.add(o);
+			command.add("-cp");
+			command.add(classPath);
+			command.add(KddnWorker.class.getName());
+			command.add(Integer.toString(server.getLocalPort()));
+
+			for(int w=0; w<n; w++) {
+				ProcessBuilder pb = new ProcessBuilder(command);
+				pb.redirectErrorStream(true);
+				Process process = pb.start();
+				processes.add(process);
+				drain(process.getInputStream());
+				OutputStream stdin = process.getOutputStream();
+				stdin.write((token + "\n").getBytes("UTF-8"));
+				stdin.close();
+			}
+
+			server.setSoTimeout(CONNECT_TIMEOUT);
+			while(workers.size() < n) {
+				Socket socket = server.accept();
+				socket.setTcpNoDelay(true);
+				Worker worker = new Worker(socket);
+				if(worker.in.readInt() == KddnWorker.MAGIC && worker.in.readUTF().equals(token))
+					workers.add(worker);
+				else
+					socket.close();
+			}
+		} catch (IOException e) {
+			for(Worker worker : workers)
+				worker.socket.close();
+			for(Process process : processes)
+				process.destroy();
+			throw e;
+		} finally {
+			server.close();
+		}
+
+		return new KddnCluster(processes, workers);
+	}
+
+	/**
+	 * Shared cluster, started on first use when kddn.workers is positive
+	 * @return null if there is none or it could not be started
+	 */
+	public static synchronized KddnCluster getShared() {
+		int n = Integer.getInteger(WORKERS_PROPERTY, 0);
+		if(shared == null && n > 0 && !sharedFailed) {
+			try {
+				shared = launch(n);
+			} catch (IOException e) {
+				// run in this JVM only
+				sharedFailed = true;
+				e.printStackTrace();
+			}
+		}
+		return shared;
+	}
+
+	/**
+	 * Stop the shared cluster
+	 */
+	public static synchronized void shutdownShared() {
+		if(shared != null) {
+			shared.shutdown();
+			shared = null;
+		}
+		sharedFailed = false;
+	}
+
+	/**
+	 * Ask the workers to quit and stop their processes
+	 */
+	public void shutdown() {
+		for(Worker worker : workers) {
+			synchronized(worker) {
+				try {
+					worker.out.writeByte(KddnWorker.QUIT);
+					worker.out.flush();
+					worker.socket.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+		for(Process process : processes)
+			process.destroy();
+		io.shutdown();
+	}
+
+	/**
+	 * Solve permutations start to end - 1 of a job on the workers
+	 * @param job
+	 * @param start
+	 * @param end
+	 * @param solveNode rows to solve
+	 * @param count exceedance counts (p by p), added to
+	 * @param dirPerm statistics of each direction, entry b is set in tail mode
+	 * @throws InterruptedException
+	 */
+	public void permute(final PermutationJob job, int start, final int end,
+			final boolean[] solveNode, final int[][] count, final double[][] dirPerm)
+			throws InterruptedException {
+
+		final int p = job.paras.p;
+		final List<int[]> lost = Collections.synchronizedList(new ArrayList<int[]>());
+		runRanges(start, end, lost, new Range() {
+			@Override
+			public void run(Worker worker, int from, int to) throws IOException {
+				DataOutputStream out = worker.out;
+				if(worker.job != job) {
+					out.writeByte(KddnWorker.JOB);
+					job.write(out);
+					worker.job = job;
+				}
+				out.writeByte(KddnWorker.PERMUTE);
+				out.writeInt(from);
+				out.writeInt(to);
+				KddnWorker.writeBooleans(out, solveNode);
+				out.flush();
+
+				DataInputStream in = worker.in;
+				int[][] c = new int[p][];
+				for(int i=0; i<p; i++) {
+					if(!solveNode[i])
+						continue;
+					c[i] = new int[p];
+					for(int j=0; j<p; j++)
+						c[i][j] = in.readInt();
+				}
+				double[][] d = new double[dirPerm.length][];
+				for(int e=0; e<dirPerm.length; e++) {
+					if(!solveNode[job.dirRow[e]])
+						continue;
+					d[e] = new double[to-from];
+					for(int b=0; b<to-from; b++)
+						d[e][b] = in.readDouble();
+				}
+
+				// merged only once the whole batch is in, a batch cut off
+				// with its worker is solved again
+				synchronized(count) {
+					for(int i=0; i<p; i++)
+						for(int j=0; c[i] != null && j<p; j++)
+							count[i][j] += c[i][j];
+				}
+				for(int e=0; e<dirPerm.length; e++)
+					if(d[e] != null)
+						System.arraycopy(d[e], 0, dirPerm[e], from, to-from);
+			}
+		});
+
+		for(int[] range : lost)
+			for(int b=range[0]; b<range[1]; b++)
+				job.permute(b, b, solveNode, count, dirPerm);
+	}
+
+	/**
+	 * Solve all node regressions of a network on the workers, each one
+	 * solving a range of nodes. Like a single JVM, workers solve from the
+	 * Gram matrices when p is at most gramLimit, whatever their range.
+	 * @param kddn settings with standardized data
+	 * @param initBeta initial beta, or null
+	 * @return as KddnMethods.solveDDN
+	 * @throws InterruptedException
+	 */
+	public KddnResults solveDDN(final KddnSettings kddn, final double[][] initBeta)
+			throws InterruptedException {
+
+		final int p = kddn.p;
+		final double[][] beta = new double[p][2*p];
+		final int[][] adjacentMatrix = new int[p][2*p];
+		final List<int[]> lost = Collections.synchronizedList(new ArrayList<int[]>());
+		runRanges(0, p, lost, new Range() {
+			@Override
+			public void run(Worker worker, int from, int to) throws IOException {
+				DataOutputStream out = worker.out;
+				if(worker.network != kddn) {
+					out.writeByte(KddnWorker.NETWORK);
+					KddnWorker.writeSettings(out, kddn);
+					KddnWorker.writeMatrix(out, initBeta);
+					worker.network = kddn;
+				}
+				out.writeByte(KddnWorker.SOLVE);
+				out.writeInt(from);
+				out.writeInt(to);
+				out.flush();
+
+				DataInputStream in = worker.in;
+				double[][] b = new double[to-from][2*p];
+				int[][] a = new int[to-from][2*p];
+				for(int i=0; i<to-from; i++)
+					for(int j=0; j<2*p; j++) {
+						b[i][j] = in.readDouble();
+						a[i][j] = in.readInt();
+					}
+				for(int i=0; i<to-from; i++) {
+					beta[from+i] = b[i];
+					adjacentMatrix[from+i] = a[i];
+				}
+			}
+		});
+
+		KddnSettings local = kddn;
+		if(!lost.isEmpty() && kddn.gram1 == null && p <= kddn.gramLimit) {
+			local = kddn.withLambda(kddn.lambda1, kddn.lambda2);
+			double[][][] g = KddnMethods.gramMatrices(kddn);
+			local.gram1 = g[0];
+			local.gram2 = g[1];
+		}
+		for(int[] range : lost) {
+			boolean[] nodes = new boolean[p];
+			for(int i=range[0]; i<range[1]; i++)
+				nodes[i] = true;
+			KddnResults r = KddnMethods.solveDDN(local, initBeta, nodes);
+			for(int i=range[0]; i<range[1]; i++) {
+				beta[i] = r.beta[i];
+				adjacentMatrix[i] = r.adjacentMatrix[i];
+			}
+		}
+
+		return KddnMethods.networkResults(kddn, beta, adjacentMatrix);
+	}
+
+	/**
+	 * Work on a range of indices by one worker
+	 */
+	private interface Range {
+		void run(Worker worker, int from, int to) throws IOException;
+	}
+
+	/**
+	 * Hand out the indices start to end - 1 in ranges to the live workers,
+	 * a few ranges per worker so that faster workers take more
+	 * @param start
+	 * @param end
+	 * @param lost receives the ranges whose worker failed
+	 * @param range
+	 * @throws InterruptedException
+	 */
+	private void runRanges(int start, final int end, final List<int[]> lost,
+			final Range range) throws InterruptedException {
+
+		int alive = 0;
+		for(Worker worker : workers)
+			if(worker.alive)
+				alive++;
+		if(alive == 0) {
+			lost.add(new int[] {start, end});
+			return;
+		}
+
+		final int size = Math.max(1, (end - start) / (4 * alive));
+		final AtomicInteger next = new AtomicInteger(start);
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(alive);
+		for(final Worker worker : workers) {
+			if(!worker.alive)
+				continue;
+			tasks.add(new Callable<Object>() {
+				@Override
+				public Object call() {
+					for(int from = next.getAndAdd(size); from < end; from = next.getAndAdd(size)) {
+						int to = Math.min(from + size, end);
+						synchronized(worker) {
+							try {
+								if(!worker.alive)
+									throw new IOException("Worker has failed");
+								range.run(worker, from, to);
+							} catch (IOException e) {
+								// the rest is left to the other workers
+								worker.alive = false;
+								lost.add(new int[] {from, to});
+								e.printStackTrace();
+								return null;
+							}
+						}
+					}
+					return null;
+				}
+			});
+		}
+		io.invokeAll(tasks);
+	}
+
+	/**
+	 * Class path of the workers: the jar or directory of this class and
+	 * commons-math3. In Cytoscape the app is a bundle jar with commons-math3
+	 * embedded, which is extracted to a temporary file; the class path of
+	 * the Cytoscape JVM itself holds neither.
+	 * @return null if it cannot be found
+	 */
+	private static String classPath() {
+		String path = System.getProperty(CLASSPATH_PROPERTY);
+		if(path != null)
+			return path;
+
+		File app = location(KddnWorker.class);
+		if(app == null)
+			return null;
+		List<File> entries = new ArrayList<File>();
+		entries.add(app);
+		if(app.isFile()) {
+			try {
+				entries.addAll(extractEmbedded(app, "commons-math3"));
+			} catch (IOException e) {
+				e.printStackTrace();
+				return null;
+			}
+		}
+		if(entries.size() == 1) {
+			// a separate jar, as when run from a build directory
+			File math = location(TTest.class);
+			if(math == null || math.equals(app))
+				return null;
+			entries.add(math);
+		}
+
+		StringBuilder sb = new StringBuilder();
+		for(File f : entries) {
+			if(sb.length() > 0)
+				sb.append(File.pathSeparator);
+			sb.append(f.getPath());
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Jar or directory a class is loaded from
+	 * @param c
+	 * @return null if it is not a local file
+	 */
+	private static File location(Class<?> c) {
+		CodeSource source = c.getProtectionDomain().getCodeSource();
+		if(source == null || source.getLocation() == null)
+			return null;
+		URL url = source.getLocation();
+		if(!"file".equals(url.getProtocol()))
+			return null;
+		try {
+			File f = new File(url.toURI());
+			return f.exists() ? f : null;
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Copy the jars embedded in a jar whose names start with prefix to
+	 * temporary files, deleted when this JVM exits
+	 * @param jar
+	 * @param prefix
+	 * @return the copies
+	 * @throws IOException
+	 */
+	private static List<File> extractEmbedded(File jar, String prefix) throws IOException {
+
+		List<File> copies = new ArrayList<File>();
+		JarFile file = new JarFile(jar);
+		try {
+			Enumeration<JarEntry> entries = file.entries();
+			while(entries.hasMoreElements()) {
+				JarEntry entry = entries.nextElement();
+				String name = entry.getName().substring(entry.getName().lastIndexOf('/') + 1);
+				if(entry.isDirectory() || !name.startsWith(prefix) || !name.endsWith(".jar"))
+					continue;
+				File copy = File.createTempFile("kddn-", "-" + name);
+				copy.deleteOnExit();
+				InputStream in = file.getInputStream(entry);
+				try {
+					OutputStream out = new FileOutputStream(copy);
+					try {
+						byte[] buffer = new byte[8192];
+						for(int n = in.read(buffer); n >= 0; n = in.read(buffer))
+							out.write(buffer, 0, n);
+					} finally {
+						out.close();
+					}
+				} finally {
+					in.close();
+				}
+				copies.add(copy);
+			}
+		} finally {
+			file.close();
+		}
+		return copies;
+	}
+
+	/**
+	 * Copy the output of a worker to the error stream of this JVM, so it
+	 * never blocks on a full pipe
+	 * @param stream
+	 */
+	private static void drain(final InputStream stream) {
+		Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				byte[] buffer = new byte[4096];
+				try {
+					for(int n = stream.read(buffer); n >= 0; n = stream.read(buffer))
+						System.err.write(buffer, 0, n);
+				} catch (IOException e) {
+				}
+			}
+		}, "kddn-cluster-output");
+		t.setDaemon(true);
+		t.start();
+	}
+
+}
@@ -291,9 +291,17 @@ public class KddnConfigurePanel extends JPanel implements CytoPanelComponent,
 			if(runPanel.permBox.isSelected()) {
 				runPanel.numPerm.setEnabled(true);
 				runPanel.numpermLabel.setEnabled(true);
+				runPanel.stopBox.setEnabled(true);
+				runPanel.swapsLabel.setEnabled(true);
+				runPanel.swaps.setEnabled(true);
 				runPanel.needPvalue = true;
 			}
 			
+			runPanel.parallelBox.setEnabled(true);
+			runPanel.rootBox.setEnabled(true);
+			runPanel.toleranceLabel.setEnabled(true);
+			runPanel.tolerance.setEnabled(true);
+			
 			// run button is enabled if necessary files are provided
 			if(!dataPanel.file2Chosen)
 				CyActivator.kddnConfigurePanel.runPanel.runButton.setEnabled(false);
@@ -320,7 +328,14 @@ public class KddnConfigurePanel extends JPanel implements CytoPanelComponent,
 			runPanel.numPerm.setEnabled(false);
 			runPanel.permBox.setEnabled(false);
 			runPanel.numpermLabel.setEnabled(false);
+			runPanel.stopBox.setEnabled(false);
+			runPanel.swapsLabel.setEnabled(false);
+			runPanel.swaps.setEnabled(false);
 			runPanel.needPvalue = false;
+			runPanel.parallelBox.setEnabled(false);
+			runPanel.rootBox.setEnabled(false);
+			runPanel.toleranceLabel.setEnabled(false);
+			runPanel.tolerance.setEnabled(false);
 						
 			// run button enabled if necessary files are provided 
 			if(dataPanel.geneChosen && dataPanel.file1Chosen)
@@ -395,6 +410,16 @@ public class KddnConfigurePanel extends JPanel implements CytoPanelComponent,
 			runPanel.numpermLabel.setEnabled(false);
 			runPanel.numPerm.setEnabled(false);
 			runPanel.numPerm.setValue(1000);
+			runPanel.stopBox.setSelected(false);
+			runPanel.stopBox.setEnabled(false);
+			runPanel.swaps.setValue(0);
+			runPanel.swapsLabel.setEnabled(false);
+			runPanel.swaps.setEnabled(false);
+			runPanel.keepBox.setSelected(KddnCheckpoint.enabled());
+			runPanel.parallelBox.setSelected(false);
+			runPanel.rootBox.setSelected(false);
+			runPanel.tolerance.setValue(0.0);
+			runPanel.threads.setValue(KddnExecutor.defaultParallelism());
 			runPanel.runButton.setEnabled(false);
 		}
 		
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2026 agent
+ *
+ * This file is part of KDDN app for Cytoscape.
+ *
+ * KDDN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * KDDN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with KDDN. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cytoscape.kddn.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread pool shared by all kDDN computations. It is created when the app
+ * starts and shut down when the bundle stops. Its parallelism is the
+ * kddn.parallelism system property or the number of processors, and can
+ * be changed from the run panel.
+ *
+ * The app targets Java 6, which has no ForkJoinPool, so this is a plain
+ * ThreadPoolExecutor rather than a work-stealing pool. invokeAll lets the
+ * calling thread run its own tasks while the workers take them from the
+ * queue, so a task may itself call invokeAll (e.g. a permutation running
+ * solveDDN) without waiting on a busy pool, which is what work stealing
+ * would give the nested parallel stages.
+ * @author agent
+ *
+ */
+public class KddnExecutor extends ThreadPoolExecutor {
+
+	/**
+	 * system property setting the number of worker threads
+	 */
+	public static final String PARALLELISM_PROPERTY = "kddn.parallelism";
+
+	private static KddnExecutor shared = null;
+
+	/**
+	 * @param parallelism number of worker threads
+	 */
+	public KddnExecutor(int parallelism) {
+		super(parallelism, parallelism, 60L, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new WorkerFactory());
+		allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Parallelism from the system property, defaults to the number of
+	 * available processors.
+	 * @return
+	 */
+	public static int defaultParallelism() {
+		int n = Integer.getInteger(PARALLELISM_PROPERTY,
+				Runtime.getRuntime().availableProcessors());
+		return Math.max(1, n);
+	}
+
+	/**
+	 * Create the shared executor, replacing a previous one.
+	 * @param parallelism number of worker threads
+	 */
+	public static synchronized void startShared(int parallelism) {
+		if(shared != null)
+			shared.shutdown();
+		shared = new KddnExecutor(parallelism);
+	}
+
+	/**
+	 * Change the number of worker threads of the shared executor; running
+	 * tasks are not affected
+	 * @param parallelism
+	 */
+	public static synchronized void setSharedParallelism(int parallelism) {
+		KddnExecutor exec = getShared();
+		parallelism = Math.max(1, parallelism);
+		if(parallelism > exec.getMaximumPoolSize()) {
+			exec.setMaximumPoolSize(parallelism);
+			exec.setCorePoolSize(parallelism);
+		} else {
+			exec.setCorePoolSize(parallelism);
+			exec.setMaximumPoolSize(parallelism);
+		}
+	}
+
+	/**
+	 * Shut down the shared executor. Running tasks are allowed to finish.
+	 */
+	public static synchronized void shutdownShared() {
+		if(shared != null) {
+			shared.shutdown();
+			shared = null;
+		}
+	}
+
+	/**
+	 * Shared executor. Outside Cytoscape, where the activator does not run,
+	 * it is created on first use.
+	 * @return
+	 */
+	public static synchronized KddnExecutor getShared() {
+		if(shared == null)
+			shared = new KddnExecutor(defaultParallelism());
+		return shared;
+	}
+
+	/**
+	 * Queue all tasks, then run the ones not yet taken by a worker in the
+	 * calling thread and wait for the rest.
+	 */
+	@Override
+	public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks)
+			throws InterruptedException {
+
+		List<RunnableFuture<T>> futures = new ArrayList<RunnableFuture<T>>(tasks.size());
+		boolean done = false;
+		try {
+			for(Callable<T> t : tasks) {
+				RunnableFuture<T> f = newTaskFor(t);
+				futures.add(f);
+				execute(f);
+			}
+			// a task already started by a worker is not run again
+			for(int i=futures.size()-1; i>=0; i--)
+				futures.get(i).run();
+			for(Future<T> f : futures) {
+				if(!f.isDone()) {
+					try {
+						f.get();
+					} catch (CancellationException e) {
+					} catch (ExecutionException e) {
+					}
+				}
+			}
+			done = true;
+			return new ArrayList<Future<T>>(futures);
+		} finally {
+			if(!done)
+				for(Future<T> f : futures)
+					f.cancel(true);
+		}
+	}
+
+	/**
+	 * Run all tasks and collect their results in order. An exception thrown
+	 * by a task is passed on to the caller.
+	 * @param tasks
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public <T> List<T> runAll(Collection<? extends Callable<T>> tasks)
+			throws InterruptedException {
+
+		List<T> results = new ArrayList<T>(tasks.size());
+		for(Future<T> f : invokeAll(tasks)) {
+			try {
+				results.add(f.get());
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if(cause instanceof RuntimeException)
+					throw (RuntimeException) cause;
+				if(cause instanceof Error)
+					throw (Error) cause;
+				throw new RuntimeException(cause);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Daemon worker threads, so a running computation never keeps
+	 * Cytoscape from exiting.
+	 */
+	private static class WorkerFactory implements ThreadFactory {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "kddn-worker-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+
+}
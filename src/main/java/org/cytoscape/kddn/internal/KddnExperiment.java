@@ -63,6 +63,15 @@ public class KddnExperiment extends AbstractTask {
     public static double delta = 0.1;
     public static double pValueCutoff = 0.05;
     public static double theta = 0;
+    public static long seed = 0;
+    public static boolean parallelLambda2 = false; // permutations of the lambda 2 search run in parallel, false searches them in turn
+    public static boolean rootLambda2 = false; // lambda 2 of a permutation by root finding, false by steps and bisection
+    public static double lambda2Tolerance = 0; // half width of the confidence interval of lambda 2, 0 for all permutations
+    public static int lambda2MinPermutations = 20;
+    public static int lambda2MaxPermutations = 100;
+    public static int permutationExceedances = 0; // sequential stopping of edge p-values, 0 runs all permutations
+    public static int permutationSwaps = 0; // samples swapped between consecutive permutations, 0 draws each afresh
+    public static boolean keepCheckpoint = KddnCheckpoint.enabled(); // progress kept in a file to resume a stopped run
 	private double firstStep = 0.3;
 	private double secondStep = 0.3;
 	
@@ -90,6 +99,21 @@ public class KddnExperiment extends AbstractTask {
     public boolean needPvalue = false;
     private int numPermutation = 1000;
     public boolean twoCondition = true;
+    public int lambda2Solves = 0; // network solves of an automatic lambda 2
+    public int lambda2Permutations = 0; // permutations of an automatic lambda 2
+    public double lambda2HalfWidth = 0; // half width of its 95% confidence interval
+    
+    // progress of this run, and of the run it continues if any
+    private KddnCheckpoint checkpoint = null;
+    private KddnCheckpoint continued = null;
+    
+    // input as given, for a run continuing this one
+    private String[] inputVarList = null;
+    private double[][] inputData1 = null;
+    private double[][] inputData2 = null;
+    private double inputLambda1 = 0;
+    private double inputLambda2 = 0;
+    private double inputTheta = 0;
     
     private KddnResults kddnDraw = null;
     
@@ -174,13 +198,44 @@ public class KddnExperiment extends AbstractTask {
 		
 		this.dataPanel = dataPanel;
 		this.parameterPanel = parameterPanel;
+		
+		this.inputVarList = varList;
+		this.inputData1 = data1;
+		this.inputData2 = data2;
+		this.inputLambda1 = lambda1;
+		this.inputLambda2 = lambda2;
+		this.inputTheta = theta;
+	}
+
+	/**
+	 * A run with the same input and more permutations. It continues the
+	 * permutation counts of this run from its checkpoint.
+	 * @param more number of permutations to add
+	 * @return
+	 */
+	public KddnExperiment morePermutations(int more) {
+		int total = numPermutation;
+		if(checkpoint != null && checkpoint.permutations > 0)
+			total = checkpoint.permutations;
+		KddnExperiment next = new KddnExperiment(cyNetworkManagerServiceRef,
+				cyNetworkNamingServiceRef, cyNetworkFactoryServiceRef,
+				networkViewFactory, networkViewManager,
+				vmmServiceRef, vsfServiceRef, vmfFactoryC,
+				vmfFactoryD, vmfFactoryP, clamRef,
+				inputVarList, inputData1, inputData2, priorKnowledge, useKnowledge,
+				inputLambda1, inputLambda2, alpha, inputTheta, delta,
+				true, total + more, twoCondition,
+				dataPanel, parameterPanel);
+		if(checkpoint != null)
+			next.continued = checkpoint.copy();
+		return next;
 	}
 
 	// run task
 	@Override
 	public void run(TaskMonitor monitor) throws Exception {
 		monitor.setTitle("KDDN experiment");
-				
+		
 	    // variable selection according to t-test p-value
 	    int[] varIndex = KddnMethods.variableSelection(varList, data1, data2);
 		varList = KddnMethods.selectVariable(varList, varIndex);
@@ -228,6 +283,32 @@ public class KddnExperiment extends AbstractTask {
 			M /= 2;
 		}
 		
+		// seed of all random streams of the run, can be fixed to reproduce
+		// it. A run continuing another one takes over its progress; with
+		// checkpoint files kept, a file of an earlier run with the same
+		// input is resumed with its own seed unless one is fixed
+		Long fixedSeed = Long.getLong("kddn.seed");
+		seed = fixedSeed != null ? fixedSeed : SplitRandom.newSeed();
+		long key = KddnCheckpoint.key(data1, data2, varList, W, 
+				lambda1, lambda2, alpha, theta, delta, pValueCutoff, 
+				parallelLambda2 ? 1 : 0, rootLambda2 ? 1 : 0, lambda2Tolerance, 
+				lambda2MinPermutations, lambda2MaxPermutations);
+		if(continued != null) {
+			checkpoint = continued;
+			if(keepCheckpoint)
+				checkpoint.persist();
+		} else if(keepCheckpoint) {
+			checkpoint = KddnCheckpoint.open(key, seed, fixedSeed == null);
+			if(checkpoint.isResumed()) {
+				String msg = "Resuming the run saved in " + checkpoint.getFile() + 
+						" with its seed " + checkpoint.seed;
+				monitor.setStatusMessage(msg);
+				System.out.println(msg);
+			}
+		} else
+			checkpoint = KddnCheckpoint.create(key, seed);
+		seed = checkpoint.seed;
+		
 		monitor.setTitle("Determining parameters");
 		// -1 means auto, find the lambda 1 automatically
 		if(lambda1 == -1)
@@ -237,7 +318,13 @@ public class KddnExperiment extends AbstractTask {
 		if(lambda2 == -1) {
 			if(twoCondition) {
 				monitor.setStatusMessage("<html>Finding &lambda;<sub>2</sub></html>");
-				lambda2 = KddnMethods.findLambda2(data1, data2, lambda1, alpha, varList, monitor, firstStep);
+				double[] stats = new double[3];
+				lambda2 = KddnMethods.findLambda2(data1, data2, lambda1, alpha, varList, 
+						monitor, firstStep, seed, checkpoint, parallelLambda2, rootLambda2, 
+						lambda2Tolerance, lambda2MinPermutations, lambda2MaxPermutations, stats);
+				lambda2Solves = (int) stats[0];
+				lambda2Permutations = (int) stats[1];
+				lambda2HalfWidth = stats[2];
 			}
 			else // set lambda 2 to 0 under single condition
 				lambda2 = 0;
@@ -253,7 +340,7 @@ public class KddnExperiment extends AbstractTask {
 			if(useKnowledge && M > 0) {
 				monitor.setStatusMessage("<html>Finding &theta;</html>");
 				theta = KddnMethods.findTheta(data1, data2, lambda1, lambda2, varList, M, delta, 
-						monitor, firstStep, secondStep);
+						monitor, firstStep, secondStep, seed, checkpoint);
 			}
 		}
 		
@@ -263,14 +350,22 @@ public class KddnExperiment extends AbstractTask {
         
         // set up KDDN data environment with raw data
 		KddnSettings rawKddn = new KddnSettings(lambda1, lambda2, pValueCutoff, theta, W, data1, data2, varList, alpha, delta);
+		rawKddn.seed = seed;
+		rawKddn.permutationExceedances = permutationExceedances;
+		rawKddn.permutationSwaps = permutationSwaps;
 	
 		// standardize data
 		KddnMethods.standardizeData(data1);
 		KddnMethods.standardizeData(data2);
 		// set up KDDN data environment with standardized data
 		KddnSettings stdKddn = new KddnSettings(lambda1, lambda2, pValueCutoff, theta, W, data1, data2, varList, alpha, delta);
-		// solve KDDN with standardized data
-		KddnResults kddn = KddnMethods.solveDDN(stdKddn);
+		// solve KDDN with standardized data, on the worker processes if any
+		KddnCluster cluster = KddnCluster.getShared();
+		KddnResults kddn = null;
+		if(cluster != null)
+			kddn = cluster.solveDDN(stdKddn, null);
+		else
+			kddn = KddnMethods.solveDDN(stdKddn);
 
         if(cancelled)
         	return;
@@ -281,7 +376,7 @@ public class KddnExperiment extends AbstractTask {
         if(needPvalue) {
         	monitor.setStatusMessage("Calculating p-value");
         	KddnResults kddnWp = KddnMethods.calculatePvalue(kddn, rawKddn, 
-        			numPermutation, monitor, firstStep, secondStep);
+        			numPermutation, monitor, firstStep, secondStep, checkpoint);
         	kddnDraw = kddnWp;
         } else
         	kddnDraw = kddn;
@@ -334,6 +429,9 @@ public class KddnExperiment extends AbstractTask {
 		CyActivator.kddnResultsPanel.getPanel();
 		CyActivator.kddnResultsPanel.getResultsTabbedPanel().setSelectedIndex(CyActivator.kddnResultsPanel.getResultsTabbedPanel().getTabCount()-1);
 
+		// the run is complete, its progress is only kept for continuing it
+		checkpoint.delete();
+		
 		monitor.setStatusMessage("Done");
 		monitor.setProgress(1);
 		
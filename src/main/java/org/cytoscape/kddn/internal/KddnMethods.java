@@ -20,13 +20,17 @@
 
 package org.cytoscape.kddn.internal;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.commons.math3.distribution.TDistribution;
 import org.apache.commons.math3.stat.inference.TTest;
+import org.cytoscape.kddn.internal.linalg.MatrixKernels;
 import org.cytoscape.work.TaskMonitor;
 
 /**
@@ -35,6 +39,29 @@ import org.cytoscape.work.TaskMonitor;
  *
  */
 public class KddnMethods {
+	
+	/**
+	 * permutations between two checks of the sequential stopping rule
+	 */
+	private static final int PERMUTATION_BATCH = 100;
+	
+	/**
+	 * number of permutation chains in swap mode, fixed so that results do
+	 * not depend on the number of threads
+	 */
+	private static final int SWAP_CHAINS = 8;
+	
+	/**
+	 * most network solves of the lambda 2 root finding in one permutation
+	 */
+	private static final int LAMBDA2_SOLVES = 20;
+	
+	/**
+	 * permutations between two checks of the confidence interval of an
+	 * adaptive lambda 2, fixed so that results do not depend on the number
+	 * of threads
+	 */
+	private static final int LAMBDA2_CHECK = 10;
    
     public KddnMethods() {
 		
@@ -51,54 +78,261 @@ public class KddnMethods {
      * @return
      * @throws InterruptedException 
      */
-    public static KddnResults calculatePvalue(KddnResults network, 
+    public static KddnResults calculatePvalue(final KddnResults network, 
     		final KddnSettings paras, 
-    		int numPermutation, TaskMonitor monitor, 
+    		final int numPermutation, final TaskMonitor monitor, 
     		double firstStep, double secondStep) throws InterruptedException {
+    	return calculatePvalue(network, paras, numPermutation, monitor, 
+    			firstStep, secondStep, null);
+    }
+
+    /**
+     * calculate DDN and p-value, continuing the permutations saved in a
+     * checkpoint; numPermutation larger than the saved count adds more
+     * @param network
+     * @param paras
+     * @param numPermutation 
+     * @param monitor 
+     * @param firstStep 
+     * @param secondStep 
+     * @param checkpoint null for none
+     * @return
+     * @throws InterruptedException 
+     */
+    public static KddnResults calculatePvalue(final KddnResults network, 
+    		final KddnSettings paras, 
+    		final int numPermutation, final TaskMonitor monitor, 
+    		double firstStep, double secondStep, 
+    		final KddnCheckpoint checkpoint) throws InterruptedException {
 
     	// copy settings
-    	double pValueCutoff = paras.pValueCutoff;
-        String[] varList = paras.varList;
-        double[][] data1 = paras.data1;
-        double[][] data2 = paras.data2;
-        double lambda1 = paras.lambda1;
-        double lambda2 = paras.lambda2;
-        double alpha = paras.alpha;
-        int p = paras.p;
-        int N1 = paras.N1;
-        int N2 = paras.N2;
-        double theta = paras.theta;
-        int[][] W = paras.W;
-        double delta = paras.delta;
+        final double[][] data1 = paras.data1;
+        final double[][] data2 = paras.data2;
+        final int p = paras.p;
+        final int N1 = paras.N1;
+        final int N2 = paras.N2;
         
         int[][] difNet = network.getDifferentialNetwork();
         int[][] permNet = new int[p][p];
         int numDif = 0;
+        final boolean[] difNode = new boolean[p];
         for(int i=0; i<p; i++)
         	for(int j=0; j<p; j++) {
         		permNet[i][j] = 0;
-        		if(difNet[i][j] != 0)
+        		if(difNet[i][j] != 0) {
         			numDif++;
+        			difNode[i] = true;
+        			difNode[j] = true;
+        		}
         	}
+        
+        // only rows of differential edges are counted, other nodes need
+        // not be solved in the permutations
+        final boolean[] solveNode = new boolean[p];
+        for(int i=0; i<p; i++)
+        	solveNode[i] = difNode[i] || !paras.targetedPermutation;
+        // number of permutations each row was solved in
+        int[] numSolved = new int[p];
+        
+        // continuous statistic |beta1 - beta2| of both directions of each
+        // differential edge (i < j), kept for every permutation in tail mode
+        final boolean tail = paras.tailPvalue;
+        int numEdge = 0;
+        for(int i=0; tail && i<p-1; i++)
+        	for(int j=i+1; j<p; j++)
+        		if(difNet[i][j] != 0)
+        			numEdge++;
+        final int numDir = 2*numEdge;
+        final int[] dirRow = new int[numDir];
+        final int[] dirCol = new int[numDir];
+        final double[] dirObs = new double[numDir];
+        final double[][] dirPerm = new double[numDir][];
+        for(int i=0, e=0; e<numDir && i<p-1; i++)
+        	for(int j=i+1; j<p; j++)
+        		if(difNet[i][j] != 0) {
+        			dirRow[e] = i;
+        			dirCol[e] = j;
+        			dirRow[e+1] = j;
+        			dirCol[e+1] = i;
+        			e += 2;
+        		}
+        for(int e=0; e<numDir; e++) {
+        	dirObs[e] = Math.abs(network.beta[dirRow[e]][dirCol[e]] - network.beta[dirRow[e]][dirCol[e]+p]);
+        	dirPerm[e] = new double[numPermutation];
+        }
+        
+        // continue from the permutations of a previous run with the same
+        // input, permutation b always uses the same random stream
+        int start = 0;
+        final long pvalueKey = KddnCheckpoint.settingsKey(paras, numDif);
+        int[][] savedChainId = null;
+        long[] savedChainState = null;
+        if(checkpoint != null && checkpoint.hasPermutations(pvalueKey)) {
+        	// counts of more permutations than asked for are kept as they are
+        	start = checkpoint.permutations;
+        	permNet = checkpoint.permNet;
+        	numSolved = checkpoint.numSolved;
+        	System.arraycopy(checkpoint.solveNode, 0, solveNode, 0, p);
+        	for(int e=0; e<numDir; e++)
+        		dirPerm[e] = Arrays.copyOf(checkpoint.dirPerm[e], Math.max(start, numPermutation));
+        	savedChainId = checkpoint.chainId;
+        	savedChainState = checkpoint.chainState;
+        }
                 
-        double thirdStep = 1 - firstStep - secondStep;
-        double progress = firstStep + secondStep;
+        final double thirdStep = 1 - firstStep - secondStep;
+        final double startProgress = firstStep + secondStep;
+        
+        // permutation solves start from the observed network, whose support
+        // is usually close to theirs
+        final double[][] initBeta = paras.warmPermutation ? network.beta : null;
+        final PermutationJob job = new PermutationJob(paras, initBeta, tail, 
+        		dirRow, dirCol, dirObs);
+        
+        // in swap mode each worker walks its own chain of permutations and
+        // updates the Gram matrices instead of computing them afresh
+        final int swaps = p <= paras.gramLimit ? paras.permutationSwaps : 0;
+        final double[][] pooled = swaps > 0 ? SwapPermutation.pool(data1, data2) : null;
+        final double[][] total = swaps > 0 ? MatrixKernels.syrk(pooled, KddnExecutor.getShared()) : null;
+        
+        // permutations are shared out to a few workers, each of them keeps
+        // its own counts and solves one permutation at a time
+        final AtomicInteger next = new AtomicInteger(0);
+        final AtomicInteger last = new AtomicInteger(0);
+        final AtomicInteger done = new AtomicInteger(start);
+        int numWorker = permutationWorkers(paras, numPermutation);
+        if(swaps > 0 && savedChainId != null)
+        	numWorker = savedChainId.length;
+        // the chains are part of the result, so they are not cut to fit
+        // the heap like independent permutations are; warn instead
+        if(swaps > 0 && numWorker * permutationBytes(paras) > Runtime.getRuntime().maxMemory() / 2) {
+        	String msg = "Swap permutations need about " 
+        			+ (numWorker * permutationBytes(paras) >> 20) + " MB, more than half of the " 
+        			+ (Runtime.getRuntime().maxMemory() >> 20) + " MB heap";
+        	System.err.println(msg);
+        	monitor.setStatusMessage(msg);
+        }
+        List<Callable<int[][]>> workers = new ArrayList<Callable<int[][]>>(numWorker);
+        final int numChain = numWorker;
+        final SwapPermutation[] chains = new SwapPermutation[numChain];
+        final SplitRandom[] chainRandoms = new SplitRandom[numChain];
+        for(int c=0; swaps > 0 && savedChainId != null && c<numChain; c++) {
+        	if(savedChainId[c].length == 0)
+        		continue;
+        	chains[c] = new SwapPermutation(pooled, total, N1, 
+        			savedChainId[c], KddnExecutor.getShared());
+        	chainRandoms[c] = new SplitRandom(savedChainState[c]);
+        }
+        for(int w=0; w<numWorker; w++) {
+        	final int chainId = w;
+        	workers.add(new Callable<int[][]>() {
+        		private double[][] gram1 = null;
+        		private double[][] gram2 = null;
+        		
+        		@Override
+        		public int[][] call() throws InterruptedException {
+        			int[][] count = new int[p][p];
+        			// permutation b is drawn from its own stream, or in swap
+        			// mode is step b / numChain of chain b % numChain
+        			int b;
+        			if(swaps > 0)
+        				b = next.get() + ((chainId - next.get() % numChain) + numChain) % numChain;
+        			else
+        				b = next.getAndIncrement();
+        			for(; b < last.get(); b = swaps > 0 ? b + numChain : next.getAndIncrement()) {
+        				if(swaps > 0) {
+        					SwapPermutation chain = chains[chainId];
+        					if(chain == null) {
+        						chainRandoms[chainId] = SplitRandom.stream(paras.seed, SplitRandom.SWAP, chainId);
+        						chain = new SwapPermutation(pooled, total, N1, 
+        								permutation(N1+N2, chainRandoms[chainId]), KddnExecutor.getShared());
+        						chains[chainId] = chain;
+        					} else
+        						chain.swap(swaps, chainRandoms[chainId]);
+        					if(gram1 == null) {
+        						gram1 = new double[p][p];
+        						gram2 = new double[p][p];
+        					}
+        					chain.gram(gram1, gram2);
+        					KddnSettings aRun = paras.withData(chain.view1(), chain.view2());
+        					aRun.gram1 = gram1;
+        					aRun.gram2 = gram2;
+        					job.count(b, solveDDN(aRun, initBeta, solveNode), solveNode, count, dirPerm);
+        				} else
+        					job.permute(b, b, solveNode, count, dirPerm);
+
+        				double progress = startProgress + thirdStep * done.incrementAndGet() / numPermutation;
+        				synchronized(monitor) {
+        					monitor.setProgress(progress);
+        				}
+        			}
+        			return count;
+        		}
+        	});
+        }
         
-        for(int i=0; i<numPermutation; i++) {
-        	int[] permId = permutation(N1+N2);
-        	double[][] pd1 = permute(data1, data2, permId, 0, N1-1);
-        	double[][] pd2 = permute(data1, data2, permId, N1, N1+N2-1);
+        // with sequential stopping (Besag and Clifford 1991) permutations
+        // run in batches; a row stops once each of its differential edges
+        // has been exceeded h times, as its p-value is then clearly large.
+        // A checkpoint is also written between batches. Worker processes,
+        // if any, take the batches apart from swap chains, which are local.
+        KddnCluster cluster = swaps > 0 ? null : KddnCluster.getShared();
+        int h = paras.permutationExceedances;
+        int batch = numPermutation;
+        if(h > 0 || checkpoint != null || cluster != null)
+        	batch = Math.max(PERMUTATION_BATCH, h);
+        boolean any = false;
+        for(int i=0; i<p; i++)
+        	any = any || solveNode[i];
+        while(numDif > 0 && any && start < numPermutation) {
+        	int end = Math.min(start+batch, numPermutation);
+        	if(cluster != null) {
+        		cluster.permute(job, start, end, solveNode, permNet, dirPerm);
+        		monitor.setProgress(startProgress + thirdStep * end / numPermutation);
+        	} else {
+        		next.set(start);
+        		last.set(end);
+        		for(int[][] count : KddnExecutor.getShared().runAll(workers))
+        			permNet = addMatrix(permNet, count);
+        	}
+        	for(int i=0; i<p; i++)
+        		if(solveNode[i])
+        			numSolved[i] += end - start;
+        	start = end;
         	
-        	standardizeData(pd1);
-        	standardizeData(pd2);
+        	if(h > 0) {
+        		any = false;
+        		for(int i=0; i<p; i++) {
+        			solveNode[i] = false;
+        			for(int j=0; j<p; j++)
+        				if((difNet[i][j] != 0 || difNet[j][i] != 0) && permNet[i][j] < h)
+        					solveNode[i] = true;
+        			any = any || solveNode[i];
+        		}
+        	}
         	
-        	KddnSettings aRun = new KddnSettings(lambda1, lambda2, pValueCutoff, theta, W, pd1, pd2, varList, alpha, delta);
-        	KddnResults aResult = solveDDN(aRun);
-        	permNet = addMatrix(permNet, aResult.getDifferentialBeta());
-
-        	progress = firstStep + secondStep + thirdStep * (i+1) / numPermutation;
-    		monitor.setProgress(progress);
+        	if(checkpoint != null) {
+        		checkpoint.pvalueKey = pvalueKey;
+        		checkpoint.permutations = start;
+        		checkpoint.permNet = permNet;
+        		checkpoint.numSolved = numSolved;
+        		checkpoint.solveNode = solveNode.clone();
+        		checkpoint.dirPerm = tail ? dirPerm : null;
+        		if(swaps > 0) {
+        			checkpoint.chainId = new int[numChain][];
+        			checkpoint.chainState = new long[numChain];
+        			for(int c=0; c<numChain; c++) {
+        				if(chains[c] == null) {
+        					checkpoint.chainId[c] = new int[0];
+        					continue;
+        				}
+        				checkpoint.chainId[c] = chains[c].permutation();
+        				checkpoint.chainState[c] = chainRandoms[c].state();
+        			}
+        		}
+        		checkpoint.save(!any || start == numPermutation);
+        	}
         }
+        monitor.setProgress(startProgress + thirdStep);
         
         double[][] pValue = new double[numDif][4];
         int rowId = 0;
@@ -107,8 +341,16 @@ public class KddnMethods {
         		if(difNet[i][j] != 0) {
         			pValue[rowId][0] = i;
         			pValue[rowId][1] = j;
-        			double p1 = (double) permNet[i][j] / numPermutation;
-        			double p2 = (double) permNet[j][i] / numPermutation;
+        			double p1 = (double) permNet[i][j] / numSolved[i];
+        			double p2 = (double) permNet[j][i] / numSolved[j];
+        			// the tail of |beta1 - beta2| only replaces counts too
+        			// small to resolve the p-value
+        			if(tail) {
+        				p1 = TailPvalue.pValue(permNet[i][j], dirObs[2*rowId], 
+        						dirPerm[2*rowId], numSolved[i]);
+        				p2 = TailPvalue.pValue(permNet[j][i], dirObs[2*rowId+1], 
+        						dirPerm[2*rowId+1], numSolved[j]);
+        			}
         			pValue[rowId][2] = Math.min(p1, p2);
         			if(difNet[i][j] == 1)
         				pValue[rowId][3] = 1;
@@ -123,7 +365,41 @@ public class KddnMethods {
     }
     
     /**
-     * Return permuted data matrix
+     * Number of permutations solved at the same time. Each solveDDN is
+     * itself parallel over nodes, so running several at once mainly helps
+     * small networks; it is bounded by the pool size and by the memory a
+     * permutation needs (data copies, Gram matrices and results). In swap
+     * mode it is always SWAP_CHAINS, one worker per chain.
+     * @param paras
+     * @param numPermutation
+     * @return
+     */
+    private static int permutationWorkers(KddnSettings paras, int numPermutation) {
+    	if(paras.p <= paras.gramLimit && paras.permutationSwaps > 0)
+    		return SWAP_CHAINS;
+    	long fit = Runtime.getRuntime().maxMemory() / 2 / permutationBytes(paras);
+    	int n = Math.min(KddnExecutor.getShared().getMaximumPoolSize(), numPermutation);
+    	return (int) Math.max(1, Math.min(n, fit));
+    }
+    
+    /**
+     * Approximate memory one permutation worker holds
+     * @param paras
+     * @return bytes
+     */
+    private static long permutationBytes(KddnSettings paras) {
+    	long p = paras.p;
+    	long bytes = 8L * (paras.N1 + paras.N2) * p + 24L * p * p;
+    	if(paras.p <= paras.gramLimit)
+    		bytes += 16L * p * p;
+    	if(paras.p <= paras.gramLimit && paras.permutationSwaps > 0)
+    		bytes += 8L * p * p;
+    	return bytes;
+    }
+    
+    /**
+     * Return permuted data matrix. The rows are shared with a and b, not
+     * copied, so the result must not be modified; see standardizeView.
      * @param a
      * @param b
      * @param id
@@ -131,26 +407,83 @@ public class KddnMethods {
      * @param end
      * @return
      */
-    private static double[][] permute(double[][] a, double[][] b,
+    static double[][] permute(double[][] a, double[][] b,
 			int[] id, int start, int end) {
-		double result[][] = new double[end-start+1][a[0].length];
+		double result[][] = new double[end-start+1][];
 		for(int i=start; i<=end; i++) {
 			int row = id[i];
 			if(row < a.length)
-				System.arraycopy(a[row], 0, result[i-start], 0, a[0].length);
+				result[i-start] = a[row];
 			else
-				System.arraycopy(b[row-a.length], 0, result[i-start], 0, a[0].length);
+				result[i-start] = b[row-a.length];
 		}
 		return result;
 	}
 
+    /**
+     * Set the column centers and scales of the settings so the solver
+     * standardizes its data on the fly, as standardizeData would in place
+     * @param kddn
+     */
+    static void standardizeView(KddnSettings kddn) {
+    	double[][] s1 = columnScaling(kddn.data1);
+    	double[][] s2 = columnScaling(kddn.data2);
+    	kddn.center1 = s1[0];
+    	kddn.scale1 = s1[1];
+    	kddn.center2 = s2[0];
+    	kddn.scale2 = s2[1];
+    }
+
+    /**
+     * Column means and inverse root sums of squares about the mean, in one
+     * pass over the rows (Welford's update)
+     * @param data
+     * @return {center, scale}, the standardized data are 
+     * (data[m][c] - center[c]) * scale[c]
+     */
+    public static double[][] columnScaling(double[][] data) {
+    	int p = data[0].length;
+    	double[] mean = new double[p];
+    	double[] ss = new double[p];
+    	for(int m=0; m<data.length; m++) {
+    		double[] x = data[m];
+    		for(int c=0; c<p; c++) {
+    			double d = x[c] - mean[c];
+    			mean[c] += d / (m+1);
+    			ss[c] += d * (x[c] - mean[c]);
+    		}
+    	}
+    	for(int c=0; c<p; c++)
+    		ss[c] = 1 / Math.sqrt(ss[c]);
+    	return new double[][] {mean, ss};
+    }
+
+    /**
+     * Gram matrices of the data of a network, as its node regressions use
+     * them; standardized when the settings hold the centers and scales of
+     * the data
+     * @param kddn
+     * @return gram1 and gram2
+     * @throws InterruptedException 
+     */
+	static double[][][] gramMatrices(KddnSettings kddn) throws InterruptedException {
+		KddnExecutor exec = KddnExecutor.getShared();
+		double[][] g1 = MatrixKernels.syrk(kddn.data1, exec);
+		double[][] g2 = MatrixKernels.syrk(kddn.data2, exec);
+		if(kddn.center1 != null) {
+			MatrixKernels.standardizeGram(g1, kddn.N1, kddn.center1, kddn.scale1);
+			MatrixKernels.standardizeGram(g2, kddn.N2, kddn.center2, kddn.scale2);
+		}
+		return new double[][][] {g1, g2};
+	}
+
     /**
      * Add two matrices
      * @param a
      * @param b
      * @return
      */
-	private static int[][] addMatrix(int[][] a,
+	static int[][] addMatrix(int[][] a,
 			int[][] b) {
 		int p = a.length;
 		for(int i=0; i<p; i++)
@@ -165,13 +498,23 @@ public class KddnMethods {
      * @return
      */
     public static int[] permutation(int N) {
+    	return permutation(N, new SplitRandom(SplitRandom.newSeed()));
+    }
+    
+	/**
+     * get permutation of array from a random stream
+     * @param N
+     * @param rng
+     * @return
+     */
+    public static int[] permutation(int N, SplitRandom rng) {
         int[] a = new int[N];
 
         for (int i = 0; i < N; i++)
             a[i] = i;
 
         for (int i = 0; i < N; i++) {
-            int r = (int) (Math.random() * (i+1));
+            int r = rng.nextInt(i+1);
             int swap = a[r];
             a[r] = a[i];
             a[i] = swap;
@@ -185,6 +528,33 @@ public class KddnMethods {
      * @return 
      */
 	public static KddnResults solveDDN(final KddnSettings kddn) throws InterruptedException {
+		return solveDDN(kddn, null);
+	}
+
+	/**
+     * Do an actual calculation of ddn, starting each node regression from
+     * the corresponding row of initBeta
+     * @param kddn
+     * @param initBeta initial beta (p by 2p), as in KddnResults.beta, or null
+     * to start from zero
+     * @return 
+     */
+	public static KddnResults solveDDN(final KddnSettings kddn, 
+			final double[][] initBeta) throws InterruptedException {
+		return solveDDN(kddn, initBeta, null);
+	}
+
+	/**
+     * Do an actual calculation of ddn for some of the nodes. The rows of
+     * beta and adjacent matrix of the other nodes are left zero.
+     * @param kddn
+     * @param initBeta initial beta (p by 2p), as in KddnResults.beta, or null
+     * to start from zero
+     * @param nodes nodes to solve, or null for all nodes
+     * @return 
+     */
+	public static KddnResults solveDDN(final KddnSettings kddn, 
+			final double[][] initBeta, boolean[] nodes) throws InterruptedException {
 	 // loop through all variables to calculate beta
 		final int[] idx = new int[kddn.p];
 		for(int i=0; i<kddn.p; i++)
@@ -193,69 +563,120 @@ public class KddnMethods {
 		final double[][] beta = new double[kddn.p][2*kddn.p]; // beta results in rows
 	    final int[][] adjacentMatrix = new int[kddn.p][2*kddn.p];
 
-		ExecutorService exec = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-		try {
-			for(final Integer i : idx) {
-				exec.submit(new Runnable() {
-					@Override
-		            public void run() {
-		            	double[] y1 = getColumn(kddn.data1, i);
-						double[] y2 = getColumn(kddn.data2, i);
-						double[][] X1 = removeColumn(kddn.data1, i);
-						double[][] X2 = removeColumn(kddn.data2, i);
-						
-						double[] l1 = new double[2*(kddn.p-1)];
-						double[] l1a = new double[2*kddn.p];
-						for(int j=0; j<2*kddn.p; j++)
-							l1a[j] = (1 - kddn.theta*kddn.W[i][j]) * kddn.lambda1;
-						
-						if(i==0) {
-							System.arraycopy(l1a, 1, l1, 0, kddn.p-1);
-							System.arraycopy(l1a, kddn.p+1, l1, kddn.p-1, kddn.p-1);
-						} else if(i==kddn.p-1){
-							System.arraycopy(l1a, 0, l1, 0, kddn.p-1);
-							System.arraycopy(l1a, kddn.p, l1, kddn.p-1, kddn.p-1);
-						} else {
-							System.arraycopy(l1a, 0, l1, 0, i);
-							System.arraycopy(l1a, kddn.p, l1, kddn.p-1, i);
-							System.arraycopy(l1a, i+1, l1, i, kddn.p-i-1);
-							System.arraycopy(l1a, kddn.p+i+1, l1, kddn.p+i-1, kddn.p-i-1);
+		KddnExecutor exec = KddnExecutor.getShared();
+		int numNodes = kddn.p;
+		if(nodes != null) {
+			numNodes = 0;
+			for(int i=0; i<kddn.p; i++)
+				if(nodes[i])
+					numNodes++;
+		}
+		
+		// Gram matrices shared by all node regressions, unless given they are
+		// computed here, but not worth their O(np^2) cost when only a few
+		// nodes are solved
+		double[][] g1 = kddn.gram1;
+		double[][] g2 = kddn.gram2;
+		if(g1 == null && kddn.p <= kddn.gramLimit && 4*numNodes >= kddn.p) {
+			double[][][] g = gramMatrices(kddn);
+			g1 = g[0];
+			g2 = g[1];
+		}
+		final double[][] G1 = g1;
+		final double[][] G2 = g2;
+		
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(kddn.p);
+		for(final Integer i : idx) {
+			if(nodes != null && !nodes[i])
+				continue;
+			tasks.add(new Callable<Object>() {
+				@Override
+	            public Object call() {
+					double[] l1 = new double[2*(kddn.p-1)];
+					double[] l1a = new double[2*kddn.p];
+					for(int j=0; j<2*kddn.p; j++)
+						l1a[j] = (1 - kddn.theta*kddn.W[i][j]) * kddn.lambda1;
+					
+					if(i==0) {
+						System.arraycopy(l1a, 1, l1, 0, kddn.p-1);
+						System.arraycopy(l1a, kddn.p+1, l1, kddn.p-1, kddn.p-1);
+					} else if(i==kddn.p-1){
+						System.arraycopy(l1a, 0, l1, 0, kddn.p-1);
+						System.arraycopy(l1a, kddn.p, l1, kddn.p-1, kddn.p-1);
+					} else {
+						System.arraycopy(l1a, 0, l1, 0, i);
+						System.arraycopy(l1a, kddn.p, l1, kddn.p-1, i);
+						System.arraycopy(l1a, i+1, l1, i, kddn.p-i-1);
+						System.arraycopy(l1a, kddn.p+i+1, l1, kddn.p+i-1, kddn.p-i-1);
+					}
+					
+					BCD oneNode = null;
+					if(initBeta == null) {
+						if(G1 != null)
+							oneNode = BCD.covariance(G1, G2, i, l1, kddn.lambda2);
+						else
+							oneNode = new BCD(kddn.data1, kddn.data2, kddn.center1, kddn.scale1, 
+									kddn.center2, kddn.scale2, i, l1, kddn.lambda2);
+					} else {
+						double[] b1 = new double[kddn.p-1];
+						double[] b2 = new double[kddn.p-1];
+						System.arraycopy(initBeta[i], 0, b1, 0, i);
+						System.arraycopy(initBeta[i], i+1, b1, i, kddn.p-1-i);
+						System.arraycopy(initBeta[i], kddn.p, b2, 0, i);
+						System.arraycopy(initBeta[i], kddn.p+i+1, b2, i, kddn.p-1-i);
+						if(G1 != null)
+							oneNode = BCD.covariance(G1, G2, i, l1, kddn.lambda2, b1, b2);
+						else
+							oneNode = new BCD(kddn.data1, kddn.data2, kddn.center1, kddn.scale1, 
+									kddn.center2, kddn.scale2, i, l1, kddn.lambda2, b1, b2);
+					}
+					oneNode.setActiveSet(kddn.activeSet);
+					oneNode.setScreening(kddn.screening);
+					oneNode.setDualityGap(kddn.dualityGap);
+
+					if(oneNode.solve()) {
+						if(i>0 && i<kddn.p-1) {
+							System.arraycopy(oneNode.getBeta(), 0, beta[i], 0, i);
+							System.arraycopy(oneNode.getBeta(), kddn.p-1, beta[i], kddn.p, i);
+							System.arraycopy(oneNode.getBeta(), i, beta[i], i+1, kddn.p-1-i);
+							System.arraycopy(oneNode.getBeta(), kddn.p-1+i, beta[i], kddn.p+i+1, kddn.p-1-i);
+							System.arraycopy(oneNode.getAdj(), 0, adjacentMatrix[i], 0, i);
+							System.arraycopy(oneNode.getAdj(), kddn.p-1, adjacentMatrix[i], kddn.p, i);
+							System.arraycopy(oneNode.getAdj(), i, adjacentMatrix[i], i+1, kddn.p-1-i);
+							System.arraycopy(oneNode.getAdj(), kddn.p-1+i, adjacentMatrix[i], kddn.p+i+1, kddn.p-1-i);
+						} else if(i==0) {
+							System.arraycopy(oneNode.getBeta(), 0, beta[i], 1, kddn.p-1);
+							System.arraycopy(oneNode.getBeta(), kddn.p-1, beta[i], kddn.p+1, kddn.p-1);
+							System.arraycopy(oneNode.getAdj(), 0, adjacentMatrix[i], 1, kddn.p-1);
+							System.arraycopy(oneNode.getAdj(), kddn.p-1, adjacentMatrix[i], kddn.p+1, kddn.p-1);
+						} else if(i==kddn.p-1) {
+							System.arraycopy(oneNode.getBeta(), 0, beta[i], 0, kddn.p-1);
+							System.arraycopy(oneNode.getBeta(), kddn.p-1, beta[i], kddn.p, kddn.p-1);
+							System.arraycopy(oneNode.getAdj(), 0, adjacentMatrix[i], 0, kddn.p-1);
+							System.arraycopy(oneNode.getAdj(), kddn.p-1, adjacentMatrix[i], kddn.p, kddn.p-1);
 						}
-						
-						BCD oneNode = new BCD(y1, y2, X1, X2, l1, kddn.lambda2);
-
-						if(oneNode.solve()) {
-							if(i>0 && i<kddn.p-1) {
-								System.arraycopy(oneNode.getBeta(), 0, beta[i], 0, i);
-								System.arraycopy(oneNode.getBeta(), kddn.p-1, beta[i], kddn.p, i);
-								System.arraycopy(oneNode.getBeta(), i, beta[i], i+1, kddn.p-1-i);
-								System.arraycopy(oneNode.getBeta(), kddn.p-1+i, beta[i], kddn.p+i+1, kddn.p-1-i);
-								System.arraycopy(oneNode.getAdj(), 0, adjacentMatrix[i], 0, i);
-								System.arraycopy(oneNode.getAdj(), kddn.p-1, adjacentMatrix[i], kddn.p, i);
-								System.arraycopy(oneNode.getAdj(), i, adjacentMatrix[i], i+1, kddn.p-1-i);
-								System.arraycopy(oneNode.getAdj(), kddn.p-1+i, adjacentMatrix[i], kddn.p+i+1, kddn.p-1-i);
-							} else if(i==0) {
-								System.arraycopy(oneNode.getBeta(), 0, beta[i], 1, kddn.p-1);
-								System.arraycopy(oneNode.getBeta(), kddn.p-1, beta[i], kddn.p+1, kddn.p-1);
-								System.arraycopy(oneNode.getAdj(), 0, adjacentMatrix[i], 1, kddn.p-1);
-								System.arraycopy(oneNode.getAdj(), kddn.p-1, adjacentMatrix[i], kddn.p+1, kddn.p-1);
-							} else if(i==kddn.p-1) {
-								System.arraycopy(oneNode.getBeta(), 0, beta[i], 0, kddn.p-1);
-								System.arraycopy(oneNode.getBeta(), kddn.p-1, beta[i], kddn.p, kddn.p-1);
-								System.arraycopy(oneNode.getAdj(), 0, adjacentMatrix[i], 0, kddn.p-1);
-								System.arraycopy(oneNode.getAdj(), kddn.p-1, adjacentMatrix[i], kddn.p, kddn.p-1);
-							}
-						} else
-							System.err.println("BCD error!");
-						
-		            }
-		        });
-				
-			}
-		} finally {
-		    exec.shutdown();
-		    exec.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+					} else
+						System.err.println("BCD error!");
+					
+					return null;
+	            }
+	        });
+			
 		}
+		exec.runAll(tasks);
+
+		return networkResults(kddn, beta, adjacentMatrix);
+	}
+
+	/**
+	 * Network of the solved node regressions
+	 * @param kddn
+	 * @param beta beta of each node in rows (p by 2p)
+	 * @param adjacentMatrix nonzero pattern of beta in rows, symmetrized here
+	 * @return
+	 */
+	static KddnResults networkResults(KddnSettings kddn, double[][] beta, 
+			int[][] adjacentMatrix) {
 
 		// symetrify adjacent matrix, requires sign consistency
 		for(int i=0; i<kddn.p-1; i++)
@@ -344,28 +765,6 @@ public class KddnMethods {
 
 	}
 
-	/**
-     * Remove a column from matrix
-     * @param data the input data matrix
-     * @param i the column will be removed
-     * @return data matrix with a column removed
-     */
-	 private static double[][] removeColumn(double[][] data, int i) {
-		
-		double[][] result = new double[data.length][data[0].length-1];
-		for(int m=0; m<data.length; m++) {
-			int len1 = i;
-			int len2 = data[0].length-1-i;
-			
-			if(len1>0)
-				System.arraycopy(data[m], 0, result[m], 0, len1);
-			if(len2>0)
-				System.arraycopy(data[m], len1+1, result[m], len1, len2);
-		}
-		
-		return result;
-	}
-
     /**
      * Standardize data to zero mean and unit variance
      * @param data
@@ -561,6 +960,19 @@ public class KddnMethods {
 		
 		standardizeData(ld1);
     	standardizeData(ld2);
+    	
+    	// with lambda2 = 0 and no prior knowledge each condition is a lasso of
+    	// its own, and the network is empty exactly when l1 is at least the
+    	// largest off-diagonal |X'X| of the standardized data; the first value
+    	// of the grid l1 / 4^k below it is found without solving
+    	KddnExecutor exec = KddnExecutor.getShared();
+    	double lambdaMax = Math.max(MatrixKernels.maxAbsOffDiagonal(ld1, exec), 
+    			MatrixKernels.maxAbsOffDiagonal(ld2, exec));
+    	while(l1 >= lambdaMax && lambdaMax > 0)
+    		l1 = l1 / 4;
+    	
+    	// one solve confirms it, the grid goes on down should rounding leave
+    	// the network empty
 		KddnSettings aRun = new KddnSettings(l1, 0, 0.05, ld1, ld2, varList, 0);
     	KddnResults aResult = solveDDN(aRun);
     	int size = getNetworkSize(aResult);
@@ -584,89 +996,387 @@ public class KddnMethods {
 	 * @param varList
 	 * @param monitor
 	 * @param firstStep
+	 * @param seed
+	 * @param checkpoint progress to continue and update, null for none
 	 * @return
 	 * @throws InterruptedException
 	 */
 	public static double findLambda2(double[][] d1, double[][] d2,
 			double l1, double alpha, String[] varList, 
-			TaskMonitor monitor, double firstStep) throws InterruptedException {
+			TaskMonitor monitor, double firstStep, long seed, 
+			KddnCheckpoint checkpoint) throws InterruptedException {
 		
-		int N1 = d1.length;
-		int N2 = d2.length;
-    	
-		double l2 = 0;
-		double step = 0.035;
-		double pNull = 0;
-		double high = 0;
-		double low = 0;
-		double mid = 0;
+		return findLambda2(d1, d2, l1, alpha, varList, monitor, firstStep, 
+				seed, checkpoint, false, false, 0, 100, 100, null);
+	}
+
+	/**
+	 * Calculate lambda 2 according to alpha. Sequentially, each permutation
+	 * starts its search from the lambda 2 of the one before. In parallel,
+	 * the first permutation is searched alone and all others start from
+	 * its bracket as independent tasks, so the result does not depend on
+	 * the number of threads.
+	 * 
+	 * With a tolerance, permutations stop once the 95% confidence interval
+	 * of the mean lambda 2 is within tolerance of it, checked every
+	 * LAMBDA2_CHECK permutations from minB on.
+	 * @param d1
+	 * @param d2
+	 * @param l1
+	 * @param alpha
+	 * @param varList
+	 * @param monitor
+	 * @param firstStep
+	 * @param seed
+	 * @param checkpoint progress to continue and update, null for none
+	 * @param parallel whether the permutations run in parallel
+	 * @param rootFinding whether each permutation is searched by
+	 * rootLambda2 instead of steps and bisection
+	 * @param tolerance largest half width of the confidence interval, 0
+	 * runs all maxB permutations
+	 * @param minB fewest permutations
+	 * @param maxB most permutations
+	 * @param stats receives the number of network solves of the
+	 * permutations used, the number of permutations and the half width of
+	 * the confidence interval, or null
+	 * @return
+	 * @throws InterruptedException
+	 */
+	public static double findLambda2(final double[][] d1, final double[][] d2,
+			final double l1, final double alpha, final String[] varList, 
+			TaskMonitor monitor, double firstStep, final long seed, 
+			KddnCheckpoint checkpoint, boolean parallel, 
+			final boolean rootFinding, double tolerance, int minB, int maxB, 
+			double[] stats) throws InterruptedException {
+		
+		// mid, low and high of the search a permutation starts from
+		double[] bracket = new double[3];
+		// running mean of lambda 2 and sum of squares about it (Welford)
 		double lambda2 = 0;
+		double m2 = 0;
+		int numSolves = 0;
 		
-		int B = 100;
-		double progress = 0;
-        for(int i=0; i<B; i++) {
-        	int[] permId = permutation(N1+N2);
-        	double[][] pd1 = permute(d1, d2, permId, 0, N1-1);
-        	double[][] pd2 = permute(d1, d2, permId, N1, N1+N2-1);
-        	
-        	standardizeData(pd1);
-        	standardizeData(pd2);
-
-        	l2 = mid;
-
-        	KddnSettings aRun = new KddnSettings(l1, l2, 0.05, pd1, pd2, varList, alpha);
-        	KddnResults aResult = solveDDN(aRun);
-
-        	pNull = getPnull(aResult);
-        	
-        	if(pNull > alpha) { 	
-	        	while(pNull > alpha) {
-	        		low = l2;
-	        		l2 += step;
-	        		high = l2;
-	        		aRun = new KddnSettings(l1, l2, 0.05, pd1, pd2, varList, alpha);
-	            	aResult = solveDDN(aRun);
-	            	pNull = getPnull(aResult);
-	        	}
-        	} else {
-        		while(pNull < alpha) {
-        			high = l2;
-        			l2 -= step;
-        			low = l2;
-        			aRun = new KddnSettings(l1, l2, 0.05, pd1, pd2, varList, alpha);
-	            	aResult = solveDDN(aRun);
-	            	pNull = getPnull(aResult);
+		int B = maxB;
+		int i = 0;
+		if(checkpoint != null) {
+			i = Math.min(checkpoint.lambda2Count, B);
+			lambda2 = checkpoint.lambda2Mean;
+			m2 = checkpoint.lambda2M2;
+			numSolves = checkpoint.lambda2Solves;
+			bracket[0] = checkpoint.lambda2Mid;
+			bracket[1] = checkpoint.lambda2Low;
+			bracket[2] = checkpoint.lambda2High;
+		}
+		
+		// a few workers search the permutations of a batch, as many as fit
+		// in memory; the batch is larger so none of them waits for long
+		KddnExecutor exec = KddnExecutor.getShared();
+		final int numWorker = parallel ? permutationWorkers(
+				new KddnSettings(l1, 0, 0.05, 0, null, d1, d2, varList, alpha, 0), maxB) : 1;
+		int batch = 2 * numWorker;
+		boolean converged = lambda2Converged(i, m2, tolerance, minB);
+        while(i < B && !converged) {
+        	// the first permutation of a parallel search sets the bracket of
+        	// all others and runs alone
+        	final int start = i;
+        	final int end = parallel && i > 0 ? Math.min(i + batch, B) : i + 1;
+        	final double[] from = bracket;
+        	double[][] found = null;
+        	if(end - start == 1)
+        		found = new double[][] {searchLambda2(d1, d2, l1, alpha, varList, 
+        				SplitRandom.stream(seed, SplitRandom.LAMBDA2, start), from, rootFinding)};
+        	else {
+        		final double[][] result = new double[end - start][];
+        		final AtomicInteger next = new AtomicInteger(start);
+        		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(numWorker);
+        		for(int w=0; w<Math.min(numWorker, end - start); w++) {
+        			tasks.add(new Callable<Object>() {
+        				@Override
+        				public Object call() throws InterruptedException {
+        					for(int b = next.getAndIncrement(); b < end; b = next.getAndIncrement())
+        						result[b - start] = searchLambda2(d1, d2, l1, alpha, varList, 
+        								SplitRandom.stream(seed, SplitRandom.LAMBDA2, b), from, 
+        								rootFinding);
+        					return null;
+        				}
+        			});
         		}
+        		exec.runAll(tasks);
+        		found = result;
         	}
         	
-        	mid = (high-low)/2 + low;
-        	aRun = new KddnSettings(l1, mid, 0.05, pd1, pd2, varList, alpha);
-        	aResult = solveDDN(aRun);
-        	pNull = getPnull(aResult);
-        	
-        	while(Math.abs(pNull - alpha) > 0.001 && high - low > 0.01) {
-        		if(pNull > alpha) {
-        			low = mid;
-        			mid = (high-low)/2 + low;
-        			aRun = new KddnSettings(l1, mid, 0.05, pd1, pd2, varList, alpha);
-                	aResult = solveDDN(aRun);
-                	pNull = getPnull(aResult);
-        		} else {
-        			high = mid;
-        			mid = (high-low)/2 + low;
-        			aRun = new KddnSettings(l1, mid, 0.05, pd1, pd2, varList, alpha);
-                	aResult = solveDDN(aRun);
-                	pNull = getPnull(aResult);
-        		}
+        	// permutations past the first check that stops are left out, and
+        	// so are their solves, so the count does not depend on the batch
+        	for(double[] f : found) {
+        		if(converged)
+        			break;
+        		numSolves += (int) f[3];
+        		i++;
+        		double d = f[0] - lambda2;
+        		lambda2 += d / i;
+        		m2 += d * (f[0] - lambda2);
+        		converged = lambda2Converged(i, m2, tolerance, minB);
         	}
+        	if(!parallel || start == 0)
+        		bracket = found[found.length-1];
         	
-        	progress = firstStep * (i+1) / B;
-    		monitor.setProgress(progress);
-
-        	lambda2 += mid;
+    		monitor.setProgress(firstStep * i / B);
+        	
+        	if(checkpoint != null) {
+        		checkpoint.lambda2Count = i;
+        		checkpoint.lambda2Mean = lambda2;
+        		checkpoint.lambda2M2 = m2;
+        		checkpoint.lambda2Mid = bracket[0];
+        		checkpoint.lambda2Low = bracket[1];
+        		checkpoint.lambda2High = bracket[2];
+        		checkpoint.lambda2Solves = numSolves;
+        		checkpoint.save(i == B || converged);
+        	}
         }
         
-		return lambda2 / B;
+        if(stats != null) {
+        	stats[0] = numSolves;
+        	stats[1] = i;
+        	stats[2] = lambda2HalfWidth(i, m2);
+        }
+		return lambda2;
+	}
+
+	/**
+	 * Half width of the 95% confidence interval of the mean lambda 2
+	 * @param n number of permutations
+	 * @param m2 sum of squares of their lambda 2 about the mean
+	 * @return
+	 */
+	private static double lambda2HalfWidth(int n, double m2) {
+		
+		if(n < 2)
+			return Double.POSITIVE_INFINITY;
+		double var = m2 / (n - 1);
+		double t = new TDistribution(n - 1).inverseCumulativeProbability(0.975);
+		return t * Math.sqrt(var / n);
+	}
+
+	/**
+	 * Whether an adaptive lambda 2 search stops after n permutations,
+	 * checked at minB and every LAMBDA2_CHECK permutations after it
+	 * @param n
+	 * @param m2 sum of squares about the mean
+	 * @param tolerance
+	 * @param minB
+	 * @return
+	 */
+	private static boolean lambda2Converged(int n, double m2, 
+			double tolerance, int minB) {
+		
+		if(tolerance <= 0 || n < minB || (n - minB) % LAMBDA2_CHECK != 0)
+			return false;
+		return lambda2HalfWidth(n, m2) <= tolerance;
+	}
+
+	/**
+	 * Search the lambda 2 of one permutation of the samples at which the
+	 * power under null is alpha, by steps from a starting point and then
+	 * bisection
+	 * @param d1
+	 * @param d2
+	 * @param l1
+	 * @param alpha
+	 * @param varList
+	 * @param rng random stream of the permutation
+	 * @param from mid, low and high of the search to start from
+	 * @param rootFinding whether to search by rootLambda2
+	 * @return mid, low and high at the end of the search, mid is lambda 2,
+	 * and the number of network solves
+	 * @throws InterruptedException
+	 */
+	private static double[] searchLambda2(double[][] d1, double[][] d2,
+			double l1, double alpha, String[] varList, SplitRandom rng, 
+			double[] from, boolean rootFinding) throws InterruptedException {
+		
+		int N1 = d1.length;
+		int N2 = d2.length;
+		
+		double step = 0.035;
+		double mid = from[0];
+		double low = from[1];
+		double high = from[2];
+		
+    	int[] permId = permutation(N1+N2, rng);
+    	double[][] pd1 = permute(d1, d2, permId, 0, N1-1);
+    	double[][] pd2 = permute(d1, d2, permId, N1, N1+N2-1);
+
+    	double l2 = mid;
+
+    	KddnSettings view = new KddnSettings(l1, l2, 0.05, pd1, pd2, varList, alpha);
+    	standardizeView(view);
+    	// every probe solves the same data, the Gram matrices are shared;
+    	// permutationWorkers counts them in the memory of a search
+    	if(view.p <= view.gramLimit) {
+    		KddnExecutor exec = KddnExecutor.getShared();
+    		view.gram1 = MatrixKernels.syrk(view.data1, exec);
+    		view.gram2 = MatrixKernels.syrk(view.data2, exec);
+    		MatrixKernels.standardizeGram(view.gram1, view.N1, view.center1, view.scale1);
+    		MatrixKernels.standardizeGram(view.gram2, view.N2, view.center2, view.scale2);
+    	}
+    	if(rootFinding)
+    		return rootLambda2(view, mid, alpha);
+    	
+    	KddnSettings aRun = view;
+    	KddnResults aResult = solveDDN(aRun);
+    	int numSolves = 1;
+
+    	double pNull = getPnull(aResult);
+    	
+    	if(pNull > alpha) { 	
+        	while(pNull > alpha) {
+        		low = l2;
+        		l2 += step;
+        		high = l2;
+        		aRun = view.withLambda(l1, l2);
+            	aResult = solveDDN(aRun);
+            	numSolves++;
+            	pNull = getPnull(aResult);
+        	}
+    	} else {
+    		while(pNull < alpha) {
+    			high = l2;
+    			l2 -= step;
+    			low = l2;
+    			aRun = view.withLambda(l1, l2);
+            	aResult = solveDDN(aRun);
+            	numSolves++;
+            	pNull = getPnull(aResult);
+    		}
+    	}
+    	
+    	mid = (high-low)/2 + low;
+    	aRun = view.withLambda(l1, mid);
+    	aResult = solveDDN(aRun);
+    	numSolves++;
+    	pNull = getPnull(aResult);
+    	
+    	while(Math.abs(pNull - alpha) > 0.001 && high - low > 0.01) {
+    		if(pNull > alpha) {
+    			low = mid;
+    			mid = (high-low)/2 + low;
+    			aRun = view.withLambda(l1, mid);
+            	aResult = solveDDN(aRun);
+            	numSolves++;
+            	pNull = getPnull(aResult);
+    		} else {
+    			high = mid;
+    			mid = (high-low)/2 + low;
+    			aRun = view.withLambda(l1, mid);
+            	aResult = solveDDN(aRun);
+            	numSolves++;
+            	pNull = getPnull(aResult);
+    		}
+    	}
+    	
+    	return new double[] {mid, low, high, numSolves};
+	}
+
+	/**
+	 * Find the lambda 2 at which the power under null of a permutation is
+	 * alpha by the Illinois variant of regula falsi. The root is bracketed
+	 * by steps from the start that double each time, then each probe
+	 * interpolates pNull linearly between the ends of the bracket, and the
+	 * value at an end kept twice in a row is halved so the bracket keeps
+	 * shrinking from both sides. Every probe starts from the beta of the
+	 * one before. The search stops as the bisection of searchLambda2 does,
+	 * or after LAMBDA2_SOLVES network solves.
+	 * @param view standardized permutation with shared Gram matrices
+	 * @param start lambda 2 to start from
+	 * @param alpha
+	 * @return lambda 2, the ends of the last bracket and the number of
+	 * network solves, as searchLambda2
+	 * @throws InterruptedException
+	 */
+	private static double[] rootLambda2(KddnSettings view, double start, 
+			double alpha) throws InterruptedException {
+		
+		double step = 0.035;
+		double l1 = view.lambda1;
+		
+		// pNull falls with lambda 2, f is pNull - alpha
+		double x = Math.max(start, 0);
+		KddnResults aResult = solveDDN(view.withLambda(l1, x));
+		int numSolves = 1;
+		double f = nullExcess(aResult, alpha);
+		if(Math.abs(f) <= 0.001)
+			return new double[] {x, x, x, numSolves};
+		
+		double a = x;
+		double fa = f;
+		double b = x;
+		double fb = f;
+		if(f > 0) {
+			while(fb > 0 && numSolves < LAMBDA2_SOLVES) {
+				a = b;
+				fa = fb;
+				b = a + step;
+				step *= 2;
+				aResult = solveDDN(view.withLambda(l1, b), aResult.beta);
+				numSolves++;
+				fb = nullExcess(aResult, alpha);
+			}
+		} else {
+			while(fa < 0 && a > 0 && numSolves < LAMBDA2_SOLVES) {
+				b = a;
+				fb = fa;
+				a = Math.max(b - step, 0);
+				step *= 2;
+				aResult = solveDDN(view.withLambda(l1, a), aResult.beta);
+				numSolves++;
+				fa = nullExcess(aResult, alpha);
+			}
+			// too few differential edges even without lambda 2, or out of
+			// solves
+			if(fa < 0)
+				return new double[] {a, a, b, numSolves};
+		}
+		if(fb > 0 || Math.abs(fb) <= 0.001)
+			return new double[] {b, a, b, numSolves};
+		if(fa <= 0.001)
+			return new double[] {a, a, b, numSolves};
+		
+		x = (b - a) / 2 + a;
+		int kept = 0; // end kept by the last probe, -1 low, 1 high
+		while(b - a > 0.01 && numSolves < LAMBDA2_SOLVES) {
+			x = (a * fb - b * fa) / (fb - fa);
+			aResult = solveDDN(view.withLambda(l1, x), aResult.beta);
+			numSolves++;
+			f = nullExcess(aResult, alpha);
+			if(Math.abs(f) <= 0.001)
+				break;
+			if(f > 0) {
+				a = x;
+				fa = f;
+				if(kept == 1)
+					fb /= 2;
+				kept = 1;
+			} else {
+				b = x;
+				fb = f;
+				if(kept == -1)
+					fa /= 2;
+				kept = -1;
+			}
+		}
+		
+		return new double[] {x, a, b, numSolves};
+	}
+
+	/**
+	 * Power under null in excess of alpha, an empty network has none
+	 * @param r
+	 * @param alpha
+	 * @return
+	 */
+	private static double nullExcess(KddnResults r, double alpha) {
+		double pNull = getPnull(r);
+		return (Double.isNaN(pNull) ? 0 : pNull) - alpha;
 	}
 
 	/**
@@ -734,12 +1444,15 @@ public class KddnMethods {
 	 * @param monitor 
 	 * @param secondStep 
 	 * @param firstStep 
+	 * @param seed
+	 * @param checkpoint progress to continue and update, null for none
 	 * @return
 	 * @throws InterruptedException
 	 */
 	public static double findTheta(double[][] d1, double[][] d2,
 			double l1, double l2, String[] varList, int M,
-			double delta, TaskMonitor monitor, double firstStep, double secondStep) throws InterruptedException {
+			double delta, TaskMonitor monitor, double firstStep, double secondStep, 
+			long seed, KddnCheckpoint checkpoint) throws InterruptedException {
 		   	
 		double portion = 0.2;
 		double remaining = secondStep;
@@ -747,24 +1460,43 @@ public class KddnMethods {
 		standardizeData(d1);
     	standardizeData(d2);
     	
+    	// the Gram matrices are computed once for the solves of all random
+    	// priors, which then take the same path as the solve without prior
     	KddnSettings dataSetting = new KddnSettings(l1, l2, 0.05, d1, d2, varList, 0.05);
+    	if(dataSetting.p <= dataSetting.gramLimit) {
+    		KddnExecutor exec = KddnExecutor.getShared();
+    		dataSetting.gram1 = MatrixKernels.syrk(d1, exec);
+    		dataSetting.gram2 = MatrixKernels.syrk(d2, exec);
+    	}
     	KddnResults dataResult = solveDDN(dataSetting);
 
     	double high = 0.5;
     	double low = 0.02;
     	double mid = (high-low) / 2 + low;
-
-    	double deviation = thetaError(d1, d2, l1, l2, varList, M, mid, dataResult);
+    	double deviation = 0;
+    	int steps = 0;
+    	
+    	if(checkpoint != null && checkpoint.thetaSteps > 0) {
+    		steps = checkpoint.thetaSteps;
+    		high = checkpoint.thetaHigh;
+    		low = checkpoint.thetaLow;
+    		mid = checkpoint.thetaMid;
+    		deviation = checkpoint.thetaDeviation;
+    		remaining = checkpoint.thetaRemaining;
+    		portion = checkpoint.thetaPortion;
+    		monitor.setProgress(firstStep + secondStep - remaining);
+    	} else
+    		deviation = thetaError(dataSetting, M, mid, dataResult, seed);
     	
     	while(high - low > 0.01) {
     		if(deviation > delta) {
     			high = mid;
     			mid = (high-low) / 2 + low;
-    			deviation = thetaError(d1, d2, l1, l2, varList, M, mid, dataResult);
+    			deviation = thetaError(dataSetting, M, mid, dataResult, seed);
     		} else {
     			low = mid;
     			mid = (high-low) / 2 + low;
-    			deviation = thetaError(d1, d2, l1, l2, varList, M, mid, dataResult);
+    			deviation = thetaError(dataSetting, M, mid, dataResult, seed);
     		}
     		
     		double progress = remaining * portion;
@@ -772,56 +1504,107 @@ public class KddnMethods {
     		portion += 0.05;
     		
     		monitor.setProgress(firstStep + secondStep - remaining);
+    		
+    		if(checkpoint != null) {
+    			checkpoint.thetaSteps = ++steps;
+    			checkpoint.thetaHigh = high;
+    			checkpoint.thetaLow = low;
+    			checkpoint.thetaMid = mid;
+    			checkpoint.thetaDeviation = deviation;
+    			checkpoint.thetaRemaining = remaining;
+    			checkpoint.thetaPortion = portion;
+    			checkpoint.save(high - low <= 0.01);
+    		}
     	}
     	
 		return mid;
 	}
 
 	/**
-	 * Calculate deviation caused by theta
-	 * @param d1
-	 * @param d2
-	 * @param l1
-	 * @param l2
-	 * @param varList
+	 * Calculate deviation caused by theta. The random priors are solved in
+	 * parallel by as many workers as permutationWorkers allows, each one
+	 * solving a prior at a time. A prior only changes the penalties of the nodes with a
+	 * nonzero row in it, so only those nodes are solved and every other
+	 * row is that of the solution without prior.
+	 * @param dataSetting settings of the standardized data without prior
 	 * @param M
 	 * @param theta
-	 * @param dataResult
+	 * @param dataResult solution without prior
+	 * @param seed
 	 * @return
 	 * @throws InterruptedException
 	 */
-	private static double thetaError(double[][] d1, double[][] d2, double l1,
-			double l2, String[] varList, int M, double theta,
-			KddnResults dataResult) throws InterruptedException {
+	private static double thetaError(final KddnSettings dataSetting, final int M, 
+			final double theta, final KddnResults dataResult, final long seed) 
+			throws InterruptedException {
 		
-		int B = 100;
-		int p = d1[0].length;
-		int error = 0;
+		final int B = 100;
+		final int p = dataSetting.p;
 		
-		for(int i=0; i<B; i++) {
-			int[][] W = randomMatrix(p, M);
-			KddnSettings aRun = new KddnSettings(l1, l2, 0.05, theta, W, d1, d2, varList, 0.05, 0.1);
-        	KddnResults aResult = solveDDN(aRun);
-        	
-        	for(int s=0; s<p-1; s++)
-        		for(int t=s+1; t<p; t++) {
-        			if(aResult.adjacentMatrix[s][t] != dataResult.adjacentMatrix[s][t])
-        				error++;
-        			if(aResult.adjacentMatrix[s][t+p] != dataResult.adjacentMatrix[s][t+p])
-        				error++;
-        		}
+		final AtomicInteger next = new AtomicInteger(0);
+		int numWorker = permutationWorkers(dataSetting, B);
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>(numWorker);
+		for(int w=0; w<numWorker; w++) {
+			tasks.add(new Callable<Integer>() {
+				@Override
+				public Integer call() throws InterruptedException {
+					int error = 0;
+					for(int b = next.getAndIncrement(); b < B; b = next.getAndIncrement())
+						error += priorError(b);
+					return error;
+				}
+				
+				private int priorError(int b) throws InterruptedException {
+					// the same random networks for every theta
+					int[][] W = randomMatrix(p, M, SplitRandom.stream(seed, SplitRandom.THETA, b));
+					KddnSettings aRun = new KddnSettings(dataSetting.lambda1, dataSetting.lambda2, 
+							0.05, theta, W, dataSetting.data1, dataSetting.data2, 
+							dataSetting.varList, 0.05, 0.1);
+					aRun.gram1 = dataSetting.gram1;
+					aRun.gram2 = dataSetting.gram2;
+					
+					boolean[] nodes = new boolean[p];
+					for(int s=0; s<p; s++)
+						for(int t=0; t<2*p && !nodes[s]; t++)
+							nodes[s] = W[s][t] != 0;
+					double[][] beta = solveDDN(aRun, null, nodes).beta;
+					
+					int[][] adjacentMatrix = new int[p][2*p];
+					for(int s=0; s<p; s++) {
+						if(!nodes[s])
+							beta[s] = dataResult.beta[s];
+						for(int t=0; t<2*p; t++)
+							adjacentMatrix[s][t] = (int) Math.signum(beta[s][t]);
+					}
+					KddnResults aResult = networkResults(aRun, beta, adjacentMatrix);
+					
+					int error = 0;
+		        	for(int s=0; s<p-1; s++)
+		        		for(int t=s+1; t<p; t++) {
+		        			if(aResult.adjacentMatrix[s][t] != dataResult.adjacentMatrix[s][t])
+		        				error++;
+		        			if(aResult.adjacentMatrix[s][t+p] != dataResult.adjacentMatrix[s][t+p])
+		        				error++;
+		        		}
+		        	return error;
+				}
+			});
 		}
 		
+		int error = 0;
+		for(int e : KddnExecutor.getShared().runAll(tasks))
+			error += e;
+		
 		return (double) error / B / getNetworkSize(dataResult);
 	}
 
 	/**
 	 * Generate a random matrix with M non zero element
 	 */
-	private static int[][] randomMatrix(int p, int M) {
+	private static int[][] randomMatrix(int p, int M, SplitRandom rng) {
 		
 		int[] idx = new int[M];
-		System.arraycopy(permutation(p*(p-1)/2), 0, idx, 0, M);
+		System.arraycopy(permutation(p*(p-1)/2, rng), 0, idx, 0, M);
 		
 		int[][] W = new int[p][2*p];
 		for(int i=0; i<p; i++)
@@ -30,14 +30,18 @@ import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.Arrays;
 
 import javax.swing.JButton;
 import javax.swing.JFileChooser;
 import javax.swing.JLabel;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTable;
 
+import org.cytoscape.work.TaskIterator;
+
 /**
  * Tabbed panel in results panel
  * @author Ye Tian
@@ -56,6 +60,7 @@ public class KddnResultsTabbedPanel extends JPanel implements ActionListener {
 	public JButton nodeExportBtn = null;
 	public JButton edgeExportBtn = null;
 	public JButton betaExportBtn = null;
+	public JButton morePermBtn = null;
 	private JFileChooser dataFileChooser= null;
 		
 	public KddnResultsTabbedPanel(KddnExperiment kddnExperiment, KddnResults kddnResults) {
@@ -90,34 +95,47 @@ public class KddnResultsTabbedPanel extends JPanel implements ActionListener {
     	pTableHeader.add(pTableLabel, BorderLayout.NORTH);
     	
     	// single condition
-		JPanel pTable = new JPanel(); 
+		String[] pHeader = null;
+		Object[][] pData = null;
     	if(!kddnExperiment.twoCondition) {
     		// no knowledge
     		if(!kddnExperiment.useKnowledge) {
-    			String[] header = {"lambda 1"};
-    			Object[][] data = {{new Double(kddnExperiment.lambda1)}};
-    			pTable = createTablePanel(data, header, 0, false);
+    			pHeader = new String[] {"lambda 1"};
+    			pData = new Object[][] {{new Double(kddnExperiment.lambda1)}};
     		} else { // use knowledge
-    			String[] header = {"lambda 1", "theta", "delta"};
-    			Object[][] data = {{new Double(kddnExperiment.lambda1),
+    			pHeader = new String[] {"lambda 1", "theta", "delta"};
+    			pData = new Object[][] {{new Double(kddnExperiment.lambda1),
     				new Double(kddnExperiment.theta), new Double(kddnExperiment.delta)}};
-    			pTable = createTablePanel(data, header, 0, false);
     		}
     	} else { // two conditions
     		// no knowledge
     		if(!kddnExperiment.useKnowledge) {
-    			String[] header = {"lambda 1", "lambda 2", "alpha"};
-    			Object[][] data = {{new Double(kddnExperiment.lambda1),
+    			pHeader = new String[] {"lambda 1", "lambda 2", "alpha"};
+    			pData = new Object[][] {{new Double(kddnExperiment.lambda1),
     				new Double(kddnExperiment.lambda2), new Double(kddnExperiment.alpha)}};
-    			pTable = createTablePanel(data, header, 0, false);
     		} else { // use knowledge
-    			String[] header = {"lambda 1", "lambda 2", "alpha", "theta", "delta"};
-    			Object[][] data = {{new Double(kddnExperiment.lambda1),
+    			pHeader = new String[] {"lambda 1", "lambda 2", "alpha", "theta", "delta"};
+    			pData = new Object[][] {{new Double(kddnExperiment.lambda1),
     				new Double(kddnExperiment.lambda2), new Double(kddnExperiment.alpha),
     				new Double(kddnExperiment.theta), new Double(kddnExperiment.delta)}};
-    			pTable = createTablePanel(data, header, 0, false);
     		}
     	}
+    	// permutations, confidence interval and network solves of an
+    	// automatic lambda 2
+    	if(kddnExperiment.lambda2Permutations > 0) {
+    		int n = pHeader.length;
+    		pHeader = Arrays.copyOf(pHeader, n+3);
+    		pHeader[n] = "lambda 2 permutations";
+    		pHeader[n+1] = "lambda 2 95% CI";
+    		pHeader[n+2] = "lambda 2 solves";
+    		pData[0] = Arrays.copyOf(pData[0], n+3);
+    		pData[0][n] = new Integer(kddnExperiment.lambda2Permutations);
+    		pData[0][n+1] = String.format("%.4f - %.4f", 
+    				kddnExperiment.lambda2 - kddnExperiment.lambda2HalfWidth, 
+    				kddnExperiment.lambda2 + kddnExperiment.lambda2HalfWidth);
+    		pData[0][n+2] = new Integer(kddnExperiment.lambda2Solves);
+    	}
+		JPanel pTable = createTablePanel(pData, pHeader, 0, false);
     	    	
     	// assemble node table
     	JLabel nodeTableLabel = new JLabel();
@@ -165,6 +183,14 @@ public class KddnResultsTabbedPanel extends JPanel implements ActionListener {
     	gbc1.weightx = 1;
     	gbc1.anchor = GridBagConstraints.WEST;
     	edgeTableHeader.add(edgeTableLabel, gbc1);
+    	// continue the permutations of this run
+    	if(kddnExperiment.twoCondition && kddnExperiment.needPvalue) {
+    		morePermBtn = new JButton("More permutations");
+    		morePermBtn.addActionListener(this);
+    		gbc1.gridx++;
+    		gbc1.weightx = 0;
+    		edgeTableHeader.add(morePermBtn, gbc1);
+    	}
     	gbc1.gridx++;
     	gbc1.weightx = 0;
     	edgeTableHeader.add(edgeExportBtn, gbc1);
@@ -452,6 +478,21 @@ public class KddnResultsTabbedPanel extends JPanel implements ActionListener {
 			}
 		}
 		
+		if (e.getSource() == morePermBtn) {
+			String more = JOptionPane.showInputDialog(KddnResultsTabbedPanel.this, 
+					"Number of permutations to add:", "1000");
+			if(more != null) {
+				try {
+					int n = Integer.parseInt(more.trim());
+					if(n > 0)
+						CyActivator.dialogTaskManager.execute(
+								new TaskIterator(kddnExperiment.morePermutations(n)));
+				} catch (NumberFormatException e1) {
+					JOptionPane.showMessageDialog(null, "Please enter a positive number.");
+				}
+			}
+		}
+		
 		if (e.getSource() == betaExportBtn) {
 			int returnVal = dataFileChooser.showSaveDialog(KddnResultsTabbedPanel.this);
 			if (returnVal == JFileChooser.APPROVE_OPTION) {
@@ -22,6 +22,7 @@ package org.cytoscape.kddn.internal;
 
 import java.awt.BorderLayout;
 import java.awt.Font;
+import java.awt.GridLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.ItemEvent;
@@ -63,9 +64,24 @@ public class KddnRunPanel extends JPanel implements
 	
 	public JButton runButton = null;
 	public JCheckBox permBox = null;
+	public JCheckBox stopBox = null;
+	public JCheckBox keepBox = null;
+	public JCheckBox parallelBox = null;
+	public JCheckBox rootBox = null;
 	public JSpinner numPerm = null;
 	public JLabel numpermLabel = null;
 	public SpinnerModel numSpin = new SpinnerNumberModel(1000, 1000, 10000, 1000);
+	public JSpinner tolerance = null;
+	public JLabel toleranceLabel = null;
+	public SpinnerModel toleranceSpin = new SpinnerNumberModel(0, 0, 0.1, 0.005);
+	public JSpinner swaps = null;
+	public JLabel swapsLabel = null;
+	public SpinnerModel swapsSpin = new SpinnerNumberModel(0, 0, 1000, 1);
+	public JSpinner threads = null;
+	public JLabel threadsLabel = null;
+	public SpinnerModel threadsSpin = new SpinnerNumberModel(KddnExecutor.defaultParallelism(), 
+			1, Math.max(KddnExecutor.defaultParallelism(), 
+					4 * Runtime.getRuntime().availableProcessors()), 1);
 	
 	// drawing
 	private CyNetworkManager cyNetworkManagerServiceRef = null;
@@ -101,6 +117,12 @@ public class KddnRunPanel extends JPanel implements
     // permutation option
     public boolean needPvalue = false;
     public int numPermutation = 1000;
+    
+    /**
+     * exceedances after which an edge is no longer permuted when stopping
+     * early is chosen
+     */
+    private static final int EXCEEDANCES = 10;
 
     // panel references
     private KddnParameterPanel parameterPanel = null;
@@ -161,10 +183,74 @@ public class KddnRunPanel extends JPanel implements
 		numPerm.setEnabled(false);
 		aPanel.add(numPerm, BorderLayout.EAST);
 		
+		// options of the run, choices above and values below
+		JPanel optionPanel = new JPanel(new BorderLayout(0,0));
+		JPanel choicePanel = new JPanel(new GridLayout(0,1));
+		JPanel valuePanel = new JPanel(new GridLayout(0,2));
+		
+		stopBox = new JCheckBox("Stop permuting an edge after " + EXCEEDANCES + " exceedances");
+		stopBox.setToolTipText("Sequential stopping: p-values above " + 
+				"h / number of permutations are estimated with fewer permutations");
+		stopBox.setEnabled(false);
+		choicePanel.add(stopBox);
+		
+		parallelBox = new JCheckBox("<html>Search the &lambda;<sub>2</sub> permutations in parallel</html>");
+		parallelBox.setToolTipText("<html>Only when &lambda;<sub>2</sub> is found automatically. " + 
+				"Each permutation starts from the first<br>one instead of the one before, " + 
+				"so &lambda;<sub>2</sub> differs slightly from the search in turn</html>");
+		parallelBox.setSelected(KddnExperiment.parallelLambda2);
+		choicePanel.add(parallelBox);
+		
+		rootBox = new JCheckBox("<html>Find each permutation's &lambda;<sub>2</sub> by root finding</html>");
+		rootBox.setToolTipText("<html>Only when &lambda;<sub>2</sub> is found automatically. " + 
+				"Fewer network solves than steps and bisection,<br>but each permutation " + 
+				"stops at another point of its bracket, so &lambda;<sub>2</sub> differs slightly</html>");
+		rootBox.setSelected(KddnExperiment.rootLambda2);
+		choicePanel.add(rootBox);
+		
+		keepBox = new JCheckBox("Keep a checkpoint to resume a stopped run");
+		keepBox.setToolTipText("Progress is saved in a local file, which is deleted " + 
+				"when the run finishes");
+		keepBox.setSelected(KddnExperiment.keepCheckpoint);
+		choicePanel.add(keepBox);
+		
+		toleranceLabel = new JLabel("<html>&lambda;<sub>2</sub> accuracy (0 runs all):</html>");
+		toleranceLabel.setToolTipText("<html>Only when &lambda;<sub>2</sub> is found automatically. " + 
+				"Its permutations stop once the 95% confidence<br>interval of &lambda;<sub>2</sub> " + 
+				"is within this much of it, after at least " + KddnExperiment.lambda2MinPermutations + 
+				" of them;<br>0 runs all " + KddnExperiment.lambda2MaxPermutations + 
+				" permutations as earlier versions did</html>");
+		valuePanel.add(toleranceLabel);
+		tolerance = new JSpinner(toleranceSpin);
+		tolerance.setEditor(new JSpinner.NumberEditor(tolerance, "0.000"));
+		valuePanel.add(tolerance);
+		
+		swapsLabel = new JLabel("Swaps between permutations:");
+		swapsLabel.setToolTipText("<html>0 draws every permutation afresh. Otherwise each permutation " + 
+				"swaps this many samples<br>between the conditions and updates the previous " + 
+				"Gram matrices, which is faster<br>for many genes, but consecutive permutations " + 
+				"share the other samples.<br>Swapping at least half of the smaller condition keeps " + 
+				"them nearly independent;<br>with fewer swaps, use more permutations for the same accuracy.</html>");
+		swapsLabel.setEnabled(false);
+		valuePanel.add(swapsLabel);
+		swaps = new JSpinner(swapsSpin);
+		swaps.setEnabled(false);
+		valuePanel.add(swaps);
+		
+		threadsLabel = new JLabel("Threads:");
+		threadsLabel.setToolTipText("Number of threads the computations share");
+		valuePanel.add(threadsLabel);
+		threads = new JSpinner(threadsSpin);
+		valuePanel.add(threads);
+		
+		optionPanel.add(choicePanel, BorderLayout.NORTH);
+		optionPanel.add(valuePanel, BorderLayout.CENTER);
+		
 		runButton = new JButton("Run KDDN");
 		runButton.setHorizontalAlignment(SwingConstants.CENTER);
 		runButton.setEnabled(false);
-		aPanel.add(runButton, BorderLayout.SOUTH);
+		optionPanel.add(runButton, BorderLayout.SOUTH);
+		aPanel.add(optionPanel, BorderLayout.SOUTH);
 		runButton.addActionListener(this);
 		
 		permBox.addItemListener(this);
@@ -178,11 +264,17 @@ public class KddnRunPanel extends JPanel implements
 		if(source == permBox) {
 			numPerm.setEnabled(true);
 			numpermLabel.setEnabled(true);
+			stopBox.setEnabled(true);
+			swapsLabel.setEnabled(true);
+			swaps.setEnabled(true);
 			needPvalue = true;
 		}
 		if (e.getStateChange() == ItemEvent.DESELECTED) {
 			numPerm.setEnabled(false);
 			numpermLabel.setEnabled(false);
+			stopBox.setEnabled(false);
+			swapsLabel.setEnabled(false);
+			swaps.setEnabled(false);
 			needPvalue = false;
 		}
 	}
@@ -303,6 +395,13 @@ public class KddnRunPanel extends JPanel implements
 			delta = (Double) parameterPanel.deltaDefault.getValue();
 						
 			numPermutation = (Integer) numPerm.getValue();
+			KddnExperiment.permutationExceedances = stopBox.isSelected() ? EXCEEDANCES : 0;
+			KddnExperiment.permutationSwaps = (Integer) swaps.getValue();
+			KddnExperiment.keepCheckpoint = keepBox.isSelected();
+			KddnExperiment.parallelLambda2 = parallelBox.isSelected();
+			KddnExperiment.rootLambda2 = rootBox.isSelected();
+			KddnExperiment.lambda2Tolerance = ((Number) tolerance.getValue()).doubleValue();
+			KddnExecutor.setSharedParallelism((Integer) threads.getValue());
 			KddnExperiment kddnInstance = null;
 			
 			// run kddn task
@@ -44,6 +44,43 @@ public class KddnSettings {
     public double theta = 0;
     public int[][] W = null;
     public double delta = 0.1;
+    public long seed = 0; // seed of the random streams of permutations
+    
+    /**
+     * column centers and scales when data1 and data2 are raw rows, e.g. a
+     * permutation view sharing the rows of the input, to be standardized
+     * on the fly as (data[m][c] - center[c]) * scale[c]; null when the data
+     * are already standardized
+     */
+    public double[] center1 = null;
+    public double[] scale1 = null;
+    public double[] center2 = null;
+    public double[] scale2 = null;
+    
+    /**
+     * Gram matrices of the standardized data when they are already known,
+     * e.g. kept up to date between permutations; null to compute them
+     */
+    public double[][] gram1 = null;
+    public double[][] gram2 = null;
+    
+    /**
+     * solver options
+     * 
+     * activeSet and screening stop at the same sweep tolerance as the
+     * exhaustive sweep of earlier versions, but by another path, so beta
+     * differs from it within that tolerance and an edge near the threshold
+     * can flip; they are off by default, which is the exhaustive sweep
+     */
+    public boolean activeSet = false; // iterate on nonzero coordinates between full sweeps
+    public boolean screening = false; // strong-rule screening with KKT check, false sweeps every coordinate
+    public double dualityGap = 0; // stop each node at this duality gap, 0 uses the change in beta
+    public int gramLimit = 4000; // largest p solved from shared Gram matrices
+    public boolean targetedPermutation = true; // permutations solve only nodes on differential edges
+    public int permutationExceedances = 0; // stop permuting an edge after this many exceedances, 0 runs all
+    public boolean tailPvalue = false; // p-values of fewer than 10 exceedances from a generalized Pareto tail of |beta1 - beta2|
+    public int permutationSwaps = 0; // swaps between consecutive permutations with Gram updates, 0 draws each afresh
+    public boolean warmPermutation = true; // start permutation solves from the observed beta
 
     /**
      * Constructor of two condition kDDN, no prior knowledge, purely data
@@ -111,4 +148,55 @@ public class KddnSettings {
     	this.delta = delta;
 	}
 
+    /**
+     * Copy of the settings with other penalty parameters, data and prior
+     * knowledge are shared
+     * @param lambda1
+     * @param lambda2
+     * @return
+     */
+    public KddnSettings withLambda(double lambda1, double lambda2) {
+    	
+    	KddnSettings s = new KddnSettings(lambda1, lambda2, pValueCutoff, 
+    			theta, W, data1, data2, varList, alpha, delta);
+    	s.center1 = center1;
+    	s.scale1 = scale1;
+    	s.center2 = center2;
+    	s.scale2 = scale2;
+    	s.gram1 = gram1;
+    	s.gram2 = gram2;
+    	copyOptions(s);
+    	
+    	return s;
+    }
+
+    /**
+     * Copy of the settings with other data, e.g. a permutation of the
+     * samples, everything else is shared
+     * @param data1
+     * @param data2
+     * @return
+     */
+    public KddnSettings withData(double[][] data1, double[][] data2) {
+    	
+    	KddnSettings s = new KddnSettings(lambda1, lambda2, pValueCutoff, 
+    			theta, W, data1, data2, varList, alpha, delta);
+    	copyOptions(s);
+    	
+    	return s;
+    }
+
+    private void copyOptions(KddnSettings s) {
+    	s.activeSet = activeSet;
+    	s.screening = screening;
+    	s.dualityGap = dualityGap;
+    	s.gramLimit = gramLimit;
+    	s.targetedPermutation = targetedPermutation;
+    	s.permutationExceedances = permutationExceedances;
+    	s.tailPvalue = tailPvalue;
+    	s.permutationSwaps = permutationSwaps;
+    	s.warmPermutation = warmPermutation;
+    	s.seed = seed;
+    }
+
 }
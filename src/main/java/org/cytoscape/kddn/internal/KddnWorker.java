@@ -0,0 +1,331 @@
+/*
+ * Copyright (C) 2026 agent
+ *
+ * This file is part of KDDN app for Cytoscape.
+ *
+ * KDDN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * KDDN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with KDDN. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cytoscape.kddn.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Worker process of a KddnCluster. It connects back to the coordinator on
+ * the loopback interface, receives the data of a permutation job or of a
+ * network once, then solves the permutation batches and node ranges it is
+ * handed and sends back their counts and beta rows.
+ *
+ * Usage: java -cp kddn.jar org.cytoscape.kddn.internal.KddnWorker port,
+ * with the access token of the coordinator on the first line of stdin.
+ * @author agent
+ *
+ */
+public class KddnWorker {
+
+	/**
+	 * protocol, a message is a type byte followed by its fields
+	 */
+	static final int MAGIC = 0x4b444457;
+	static final byte QUIT = 0;
+	static final byte JOB = 1; // PermutationJob
+	static final byte PERMUTE = 2; // start, end, rows to solve
+	static final byte NETWORK = 3; // settings, initial beta
+	static final byte SOLVE = 4; // first node, end node
+
+	private KddnWorker() {
+
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		int port = Integer.parseInt(args[0]);
+		String token = new BufferedReader(new InputStreamReader(System.in)).readLine();
+
+		Socket socket = new Socket(InetAddress.getByName(null), port);
+		socket.setTcpNoDelay(true);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		out.writeInt(MAGIC);
+		out.writeUTF(token);
+		out.flush();
+
+		try {
+			serve(in, out);
+		} finally {
+			socket.close();
+			KddnExecutor.shutdownShared();
+		}
+	}
+
+	/**
+	 * Answer the messages of the coordinator until it quits
+	 * @param in
+	 * @param out
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	static void serve(DataInputStream in, DataOutputStream out)
+			throws IOException, InterruptedException {
+
+		PermutationJob job = null;
+		KddnSettings network = null;
+		double[][] initBeta = null;
+
+		while(true) {
+			byte type = in.readByte();
+			if(type == QUIT)
+				return;
+
+			if(type == JOB) {
+				job = PermutationJob.read(in);
+			} else if(type == PERMUTE) {
+				int start = in.readInt();
+				int end = in.readInt();
+				boolean[] solveNode = readBooleans(in);
+				int p = job.paras.p;
+				int[][] count = new int[p][p];
+				double[][] dirPerm = new double[job.dirRow.length][end-start];
+				permute(job, start, end, solveNode, count, dirPerm);
+
+				for(int i=0; i<p; i++)
+					if(solveNode[i])
+						for(int j=0; j<p; j++)
+							out.writeInt(count[i][j]);
+				for(int e=0; e<dirPerm.length; e++)
+					if(solveNode[job.dirRow[e]])
+						for(int b=0; b<end-start; b++)
+							out.writeDouble(dirPerm[e][b]);
+			} else if(type == NETWORK) {
+				network = readSettings(in);
+				initBeta = readMatrix(in);
+				// the ranges are solved from the Gram matrices whenever the
+				// whole network would be, so beta is that of a single JVM
+				if(network.p <= network.gramLimit) {
+					double[][][] g = KddnMethods.gramMatrices(network);
+					network.gram1 = g[0];
+					network.gram2 = g[1];
+				}
+			} else if(type == SOLVE) {
+				int from = in.readInt();
+				int to = in.readInt();
+				int p = network.p;
+				boolean[] nodes = new boolean[p];
+				for(int i=from; i<to; i++)
+					nodes[i] = true;
+				KddnResults r = KddnMethods.solveDDN(network, initBeta, nodes);
+
+				for(int i=from; i<to; i++)
+					for(int j=0; j<2*p; j++) {
+						out.writeDouble(r.beta[i][j]);
+						out.writeInt(r.adjacentMatrix[i][j]);
+					}
+			} else
+				throw new IOException("Unknown message " + type);
+			out.flush();
+		}
+	}
+
+	/**
+	 * Solve permutations start to end - 1 on the threads of this process
+	 * @param job
+	 * @param start
+	 * @param end
+	 * @param solveNode rows to solve
+	 * @param count receives the counts
+	 * @param dirPerm receives the statistics of permutation b at b - start
+	 * @throws InterruptedException
+	 */
+	private static void permute(final PermutationJob job, final int start, final int end,
+			final boolean[] solveNode, int[][] count, final double[][] dirPerm)
+			throws InterruptedException {
+
+		final int p = job.paras.p;
+		final AtomicInteger next = new AtomicInteger(start);
+		KddnExecutor exec = KddnExecutor.getShared();
+		int n = Math.min(exec.getMaximumPoolSize(), end - start);
+		List<Callable<int[][]>> tasks = new ArrayList<Callable<int[][]>>(n);
+		for(int t=0; t<n; t++)
+			tasks.add(new Callable<int[][]>() {
+				@Override
+				public int[][] call() throws InterruptedException {
+					int[][] c = new int[p][p];
+					for(int b = next.getAndIncrement(); b < end; b = next.getAndIncrement())
+						job.permute(b, b - start, solveNode, c, dirPerm);
+					return c;
+				}
+			});
+		for(int[][] c : exec.runAll(tasks))
+			KddnMethods.addMatrix(count, c);
+	}
+
+	/**
+	 * Write the data and settings of a run
+	 * @param out
+	 * @param s
+	 * @throws IOException
+	 */
+	static void writeSettings(DataOutputStream out, KddnSettings s) throws IOException {
+
+		writeMatrix(out, s.data1);
+		writeMatrix(out, s.data2);
+		out.writeInt(s.varList.length);
+		for(String v : s.varList) {
+			out.writeBoolean(v != null);
+			if(v != null)
+				out.writeUTF(v);
+		}
+		out.writeInt(s.W.length);
+		for(int[] w : s.W) {
+			out.writeInt(w.length);
+			for(int v : w)
+				out.writeInt(v);
+		}
+		out.writeDouble(s.lambda1);
+		out.writeDouble(s.lambda2);
+		out.writeDouble(s.pValueCutoff);
+		out.writeDouble(s.theta);
+		out.writeDouble(s.alpha);
+		out.writeDouble(s.delta);
+		out.writeLong(s.seed);
+		writeVector(out, s.center1);
+		writeVector(out, s.scale1);
+		writeVector(out, s.center2);
+		writeVector(out, s.scale2);
+
+		out.writeBoolean(s.activeSet);
+		out.writeBoolean(s.screening);
+		out.writeDouble(s.dualityGap);
+		out.writeInt(s.gramLimit);
+		out.writeBoolean(s.targetedPermutation);
+		out.writeInt(s.permutationExceedances);
+		out.writeBoolean(s.tailPvalue);
+		out.writeInt(s.permutationSwaps);
+		out.writeBoolean(s.warmPermutation);
+	}
+
+	/**
+	 * Read the settings written by writeSettings()
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	static KddnSettings readSettings(DataInputStream in) throws IOException {
+
+		double[][] data1 = readMatrix(in);
+		double[][] data2 = readMatrix(in);
+		String[] varList = new String[in.readInt()];
+		for(int i=0; i<varList.length; i++)
+			varList[i] = in.readBoolean() ? in.readUTF() : null;
+		int[][] W = new int[in.readInt()][];
+		for(int i=0; i<W.length; i++) {
+			W[i] = new int[in.readInt()];
+			for(int j=0; j<W[i].length; j++)
+				W[i][j] = in.readInt();
+		}
+		double lambda1 = in.readDouble();
+		double lambda2 = in.readDouble();
+		double pValueCutoff = in.readDouble();
+		double theta = in.readDouble();
+		double alpha = in.readDouble();
+		double delta = in.readDouble();
+
+		KddnSettings s = new KddnSettings(lambda1, lambda2, pValueCutoff, theta, W,
+				data1, data2, varList, alpha, delta);
+		s.seed = in.readLong();
+		s.center1 = readVector(in);
+		s.scale1 = readVector(in);
+		s.center2 = readVector(in);
+		s.scale2 = readVector(in);
+
+		s.activeSet = in.readBoolean();
+		s.screening = in.readBoolean();
+		s.dualityGap = in.readDouble();
+		s.gramLimit = in.readInt();
+		s.targetedPermutation = in.readBoolean();
+		s.permutationExceedances = in.readInt();
+		s.tailPvalue = in.readBoolean();
+		s.permutationSwaps = in.readInt();
+		s.warmPermutation = in.readBoolean();
+		return s;
+	}
+
+	/**
+	 * @param out
+	 * @param a matrix, may be null
+	 * @throws IOException
+	 */
+	static void writeMatrix(DataOutputStream out, double[][] a) throws IOException {
+		out.writeInt(a == null ? -1 : a.length);
+		for(int i=0; a != null && i<a.length; i++)
+			writeVector(out, a[i]);
+	}
+
+	static double[][] readMatrix(DataInputStream in) throws IOException {
+		int n = in.readInt();
+		if(n < 0)
+			return null;
+		double[][] a = new double[n][];
+		for(int i=0; i<n; i++)
+			a[i] = readVector(in);
+		return a;
+	}
+
+	/**
+	 * @param out
+	 * @param v vector, may be null
+	 * @throws IOException
+	 */
+	static void writeVector(DataOutputStream out, double[] v) throws IOException {
+		out.writeInt(v == null ? -1 : v.length);
+		for(int i=0; v != null && i<v.length; i++)
+			out.writeDouble(v[i]);
+	}
+
+	static double[] readVector(DataInputStream in) throws IOException {
+		int n = in.readInt();
+		if(n < 0)
+			return null;
+		double[] v = new double[n];
+		for(int i=0; i<n; i++)
+			v[i] = in.readDouble();
+		return v;
+	}
+
+	static void writeBooleans(DataOutputStream out, boolean[] v) throws IOException {
+		out.writeInt(v.length);
+		for(boolean b : v)
+			out.writeBoolean(b);
+	}
+
+	static boolean[] readBooleans(DataInputStream in) throws IOException {
+		boolean[] v = new boolean[in.readInt()];
+		for(int i=0; i<v.length; i++)
+			v[i] = in.readBoolean();
+		return v;
+	}
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2026 agent
+ *
+ * This file is part of KDDN app for Cytoscape.
+ *
+ * KDDN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * KDDN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with KDDN. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cytoscape.kddn.internal;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * What a permutation of the samples needs to be solved and counted: the
+ * raw data and settings, the observed network and, in tail mode, the
+ * observed statistics of the differential edges. Permutation b is the same
+ * wherever it runs, in this JVM or in a worker process (see KddnWorker).
+ * @author agent
+ *
+ */
+public class PermutationJob {
+
+	public final KddnSettings paras;
+	public final double[][] initBeta; // start of the solves, or null
+	public final boolean tail;
+	public final int[] dirRow;
+	public final int[] dirCol;
+	public final double[] dirObs;
+
+	/**
+	 * @param paras settings with the raw data
+	 * @param initBeta start of the permutation solves, or null
+	 * @param tail whether |beta1 - beta2| of each direction is kept
+	 * @param dirRow row of each direction of the differential edges
+	 * @param dirCol column of each direction
+	 * @param dirObs observed |beta1 - beta2| of each direction
+	 */
+	public PermutationJob(KddnSettings paras, double[][] initBeta, boolean tail,
+			int[] dirRow, int[] dirCol, double[] dirObs) {
+		this.paras = paras;
+		this.initBeta = initBeta;
+		this.tail = tail;
+		this.dirRow = dirRow;
+		this.dirCol = dirCol;
+		this.dirObs = dirObs;
+	}
+
+	/**
+	 * Solve permutation b, drawn from its own random stream, and count it
+	 * @param b index of the permutation
+	 * @param slot entry of dirPerm for the permutation
+	 * @param solveNode rows to solve
+	 * @param count exceedance counts (p by p), added to
+	 * @param dirPerm statistics of each direction, set in tail mode
+	 * @throws InterruptedException
+	 */
+	public void permute(int b, int slot, boolean[] solveNode, int[][] count,
+			double[][] dirPerm) throws InterruptedException {
+
+		int N1 = paras.N1;
+		int N2 = paras.N2;
+		int[] permId = KddnMethods.permutation(N1+N2,
+				SplitRandom.stream(paras.seed, SplitRandom.PVALUE, b));
+		double[][] pd1 = KddnMethods.permute(paras.data1, paras.data2, permId, 0, N1-1);
+		double[][] pd2 = KddnMethods.permute(paras.data1, paras.data2, permId, N1, N1+N2-1);
+
+		KddnSettings aRun = paras.withData(pd1, pd2);
+		KddnMethods.standardizeView(aRun);
+		count(slot, KddnMethods.solveDDN(aRun, initBeta, solveNode), solveNode, count, dirPerm);
+	}
+
+	/**
+	 * Count the differential edges of a solved permutation
+	 * @param slot entry of dirPerm for the permutation
+	 * @param aResult solution of the permutation
+	 * @param solveNode rows solved
+	 * @param count exceedance counts (p by p), added to
+	 * @param dirPerm statistics of each direction, set in tail mode
+	 */
+	public void count(int slot, KddnResults aResult, boolean[] solveNode,
+			int[][] count, double[][] dirPerm) {
+
+		// the counts are those of the test in either mode, tail mode also
+		// keeps the continuous statistic for the tail fit
+		int p = paras.p;
+		KddnMethods.addMatrix(count, aResult.getDifferentialBeta());
+		for(int e=0; tail && e<dirRow.length; e++) {
+			int i = dirRow[e];
+			int j = dirCol[e];
+			if(solveNode[i])
+				dirPerm[e][slot] = Math.abs(aResult.beta[i][j] - aResult.beta[i][j+p]);
+		}
+	}
+
+	/**
+	 * Write the job for a worker process
+	 * @param out
+	 * @throws IOException
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		KddnWorker.writeSettings(out, paras);
+		KddnWorker.writeMatrix(out, initBeta);
+		out.writeBoolean(tail);
+		out.writeInt(dirRow.length);
+		for(int e=0; e<dirRow.length; e++) {
+			out.writeInt(dirRow[e]);
+			out.writeInt(dirCol[e]);
+			out.writeDouble(dirObs[e]);
+		}
+	}
+
+	/**
+	 * Read a job written by write()
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 */
+	public static PermutationJob read(DataInputStream in) throws IOException {
+		KddnSettings paras = KddnWorker.readSettings(in);
+		double[][] initBeta = KddnWorker.readMatrix(in);
+		boolean tail = in.readBoolean();
+		int numDir = in.readInt();
+		int[] dirRow = new int[numDir];
+		int[] dirCol = new int[numDir];
+		double[] dirObs = new double[numDir];
+		for(int e=0; e<numDir; e++) {
+			dirRow[e] = in.readInt();
+			dirCol[e] = in.readInt();
+			dirObs[e] = in.readDouble();
+		}
+		return new PermutationJob(paras, initBeta, tail, dirRow, dirCol, dirObs);
+	}
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2026 agent
+ *
+ * This file is part of KDDN app for Cytoscape.
+ *
+ * KDDN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * KDDN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with KDDN. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cytoscape.kddn.internal;
+
+/**
+ * Seeded random number stream (SplitMix64, Steele et al. 2014). A run has
+ * one seed; every random task, e.g. one permutation, gets its own stream
+ * derived from the seed, the stage and the index of the task, so results
+ * do not depend on which thread runs which task. A stream is used by one
+ * thread only and never locks.
+ * @author agent
+ *
+ */
+public class SplitRandom {
+
+	/**
+	 * stages of a run drawing random numbers
+	 */
+	public static final int PVALUE = 1;
+	public static final int LAMBDA2 = 2;
+	public static final int THETA = 3;
+	public static final int SWAP = 4;
+
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	private long state;
+
+	/**
+	 * @param seed
+	 */
+	public SplitRandom(long seed) {
+		this.state = seed;
+	}
+
+	/**
+	 * Stream of one task of a run
+	 * @param seed seed of the run
+	 * @param stage
+	 * @param index index of the task within the stage
+	 * @return
+	 */
+	public static SplitRandom stream(long seed, int stage, long index) {
+		long s = mix(seed + stage * GOLDEN_GAMMA);
+		return new SplitRandom(mix(s + index * GOLDEN_GAMMA));
+	}
+
+	/**
+	 * A fresh seed for a run
+	 * @return
+	 */
+	public static long newSeed() {
+		return mix(System.nanoTime()) ^ mix(System.currentTimeMillis() + GOLDEN_GAMMA);
+	}
+
+	/**
+	 * State of the stream, new SplitRandom(state()) continues it
+	 * @return
+	 */
+	public long state() {
+		return state;
+	}
+
+	public long nextLong() {
+		state += GOLDEN_GAMMA;
+		return mix(state);
+	}
+
+	/**
+	 * @return uniform in [0, 1)
+	 */
+	public double nextDouble() {
+		return (nextLong() >>> 11) * 0x1.0p-53;
+	}
+
+	/**
+	 * @param bound
+	 * @return uniform in [0, bound)
+	 */
+	public int nextInt(int bound) {
+		// 31 random bits, the incomplete last block of size bound is
+		// rejected so every value is equally likely
+		long u = nextLong() >>> 33;
+		long r = u % bound;
+		while(u - r + bound - 1 >= (1L << 31)) {
+			u = nextLong() >>> 33;
+			r = u % bound;
+		}
+		return (int) r;
+	}
+
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2026 agent
+ *
+ * This file is part of KDDN app for Cytoscape.
+ *
+ * KDDN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * KDDN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with KDDN. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cytoscape.kddn.internal;
+
+import java.util.concurrent.ExecutorService;
+
+import org.cytoscape.kddn.internal.linalg.MatrixKernels;
+
+/**
+ * Chain of permutations of the pooled samples in which consecutive
+ * permutations differ by a few swaps between the two conditions. The cross
+ * products of condition 1 are kept up to date by rank-1 updates and those
+ * of condition 2 follow from the pooled total, so the standardized Gram
+ * matrices of a permutation cost O(p^2) per swap instead of O(np^2).
+ *
+ * A chain started from a uniform permutation stays uniform, but
+ * consecutive permutations are correlated; the fewer the swaps, the more
+ * permutations are needed for the same accuracy. The rank-1 updates drift
+ * by rounding, so the cross products are computed afresh every n1 + n2
+ * swaps.
+ * @author agent
+ *
+ */
+public class SwapPermutation {
+
+	private final double[][] pooled;
+	private final double[][] total;
+	private final double[] totalSum;
+	private final int n1;
+	private final int n2;
+	private final int p;
+
+	// pooled index of the samples, the first n1 are in condition 1
+	private final int[] id;
+	private final double[][] cross1;
+	private final double[] sum1;
+	private final ExecutorService exec;
+	private int unrefreshed = 0; // swaps since the cross products were computed
+
+	/**
+	 * Start a chain at a given permutation
+	 * @param pooled pooled samples, from pool()
+	 * @param total cross products of all pooled samples
+	 * @param n1 number of samples in condition 1
+	 * @param id permutation of the pooled samples
+	 * @param exec executor for the cross products
+	 * @throws InterruptedException
+	 */
+	public SwapPermutation(double[][] pooled, double[][] total, int n1,
+			int[] id, ExecutorService exec) throws InterruptedException {
+
+		this.pooled = pooled;
+		this.total = total;
+		this.n1 = n1;
+		this.n2 = pooled.length - n1;
+		this.p = pooled[0].length;
+		this.id = id.clone();
+		this.exec = exec;
+
+		this.totalSum = new double[p];
+		for(double[] x : pooled)
+			for(int c=0; c<p; c++)
+				totalSum[c] += x[c];
+
+		this.cross1 = new double[p][];
+		this.sum1 = new double[p];
+		refresh();
+	}
+
+	/**
+	 * Compute the cross products and sums of condition 1 afresh
+	 * @throws InterruptedException
+	 */
+	private void refresh() throws InterruptedException {
+
+		double[][] rows = view1();
+		double[][] cross = MatrixKernels.syrk(rows, exec);
+		for(int c=0; c<p; c++) {
+			cross1[c] = cross[c];
+			sum1[c] = 0;
+		}
+		for(double[] x : rows)
+			for(int c=0; c<p; c++)
+				sum1[c] += x[c];
+		unrefreshed = 0;
+	}
+
+	/**
+	 * Pool the samples of both conditions, centered at the pooled mean so
+	 * the cross products are well conditioned
+	 * @param data1
+	 * @param data2
+	 * @return
+	 */
+	public static double[][] pool(double[][] data1, double[][] data2) {
+
+		int n = data1.length + data2.length;
+		int p = data1[0].length;
+		double[][] pooled = new double[n][];
+		double[] mean = new double[p];
+		for(int m=0; m<n; m++) {
+			double[] x = m < data1.length ? data1[m] : data2[m-data1.length];
+			pooled[m] = x.clone();
+			for(int c=0; c<p; c++)
+				mean[c] += x[c] / n;
+		}
+		for(double[] x : pooled)
+			for(int c=0; c<p; c++)
+				x[c] -= mean[c];
+		return pooled;
+	}
+
+	/**
+	 * Move to the next permutation by swapping random samples between the
+	 * two conditions
+	 * @param swaps number of swaps
+	 * @param rng random stream of the chain
+	 * @throws InterruptedException
+	 */
+	public void swap(int swaps, SplitRandom rng) throws InterruptedException {
+
+		for(int s=0; s<swaps; s++) {
+			int u = rng.nextInt(n1);
+			int v = n1 + rng.nextInt(n2);
+			double[] out = pooled[id[u]];
+			double[] in = pooled[id[v]];
+			int t = id[u];
+			id[u] = id[v];
+			id[v] = t;
+
+			for(int i=0; i<p; i++) {
+				double a = out[i];
+				double b = in[i];
+				double[] row = cross1[i];
+				for(int j=0; j<p; j++)
+					row[j] += b * in[j] - a * out[j];
+				sum1[i] += b - a;
+			}
+		}
+
+		unrefreshed += swaps;
+		if(unrefreshed >= n1 + n2)
+			refresh();
+	}
+
+	/**
+	 * Standardized Gram matrices of the current permutation, as those of
+	 * the data after KddnMethods.standardizeData
+	 * @param G1 receives the Gram matrix of condition 1 (p by p)
+	 * @param G2 receives the Gram matrix of condition 2 (p by p)
+	 */
+	public void gram(double[][] G1, double[][] G2) {
+
+		double[] mean1 = new double[p];
+		double[] mean2 = new double[p];
+		double[] scale1 = new double[p];
+		double[] scale2 = new double[p];
+		for(int c=0; c<p; c++) {
+			mean1[c] = sum1[c] / n1;
+			mean2[c] = (totalSum[c] - sum1[c]) / n2;
+			scale1[c] = 1 / Math.sqrt(cross1[c][c] - n1 * mean1[c] * mean1[c]);
+			scale2[c] = 1 / Math.sqrt(total[c][c] - cross1[c][c] - n2 * mean2[c] * mean2[c]);
+		}
+
+		for(int i=0; i<p; i++) {
+			double[] s = cross1[i];
+			double[] t = total[i];
+			double[] g1 = G1[i];
+			double[] g2 = G2[i];
+			double a1 = n1 * mean1[i];
+			double a2 = n2 * mean2[i];
+			for(int j=0; j<p; j++) {
+				g1[j] = (s[j] - a1 * mean1[j]) * scale1[i] * scale1[j];
+				g2[j] = (t[j] - s[j] - a2 * mean2[j]) * scale2[i] * scale2[j];
+			}
+		}
+	}
+
+	/**
+	 * Current permutation of the pooled samples, a chain started from it
+	 * continues this one
+	 * @return
+	 */
+	public int[] permutation() {
+		return id.clone();
+	}
+
+	/**
+	 * Rows of condition 1 in the current permutation, shared with the pool
+	 * @return
+	 */
+	public double[][] view1() {
+		double[][] rows = new double[n1][];
+		for(int m=0; m<n1; m++)
+			rows[m] = pooled[id[m]];
+		return rows;
+	}
+
+	/**
+	 * Rows of condition 2 in the current permutation, shared with the pool
+	 * @return
+	 */
+	public double[][] view2() {
+		double[][] rows = new double[n2][];
+		for(int m=0; m<n2; m++)
+			rows[m] = pooled[id[n1+m]];
+		return rows;
+	}
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2026 agent
+ *
+ * This file is part of KDDN app for Cytoscape.
+ *
+ * KDDN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * KDDN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with KDDN. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cytoscape.kddn.internal;
+
+import java.util.Arrays;
+
+/**
+ * Permutation p-values with the tail approximated by a generalized Pareto
+ * distribution (Knijnenburg et al., Bioinformatics 2009). The p-value is
+ * the empirical count of the permutation test; only when it counts too few
+ * exceedances to resolve the p-value, the largest permutation values of a
+ * continuous statistic are fitted by probability weighted moments (Hosking
+ * and Wallis 1987) and the p-value is read from the fitted tail.
+ * @author agent
+ *
+ */
+public class TailPvalue {
+
+	/**
+	 * empirical p-value is used from this many exceedances on
+	 */
+	static final int MIN_EXCEEDANCES = 10;
+
+	/**
+	 * largest number of permutation statistics in the fitted tail
+	 */
+	static final int MAX_TAIL = 250;
+
+	/**
+	 * smallest number of permutation statistics in the fitted tail
+	 */
+	static final int MIN_TAIL = 30;
+
+	private TailPvalue() {
+
+	}
+
+	/**
+	 * P-value of a permutation test, from the tail of a continuous
+	 * statistic when the test counts fewer than MIN_EXCEEDANCES
+	 * exceedances; large values of the statistic are extreme.
+	 * @param exceed exceedances counted by the test
+	 * @param statistic observed statistic
+	 * @param perm permutation statistics, only the first n are used
+	 * @param n number of permutations
+	 * @return
+	 */
+	public static double pValue(int exceed, double statistic, double[] perm, int n) {
+
+		if(exceed >= MIN_EXCEEDANCES)
+			return (double) exceed / n;
+
+		double[] x = Arrays.copyOf(perm, n);
+		Arrays.sort(x);
+
+		// tail of about a tenth of the permutations, above the ties at zero
+		int tail = Math.min(MAX_TAIL, n/10);
+		int positive = 0;
+		while(positive < n && x[n-1-positive] > 0)
+			positive++;
+		tail = Math.min(tail, positive-1);
+		if(tail < MIN_TAIL)
+			return (double) exceed / n;
+
+		// threshold between the tail and the rest
+		double u = (x[n-tail-1] + x[n-tail]) / 2;
+		double[] y = new double[tail];
+		for(int m=0; m<tail; m++)
+			y[m] = x[n-tail+m] - u;
+
+		double[] fit = fitPareto(y);
+		if(fit == null)
+			return (double) exceed / n;
+
+		// a fitted upper end point (k > 0) would give p-values of zero beyond
+		// it, the exponential tail is used instead to stay conservative
+		return (double) tail / n * survival(statistic - u, Math.min(fit[0], 0), fit[1]);
+	}
+
+	/**
+	 * Probability weighted moment estimates of the generalized Pareto
+	 * distribution F(y) = 1 - (1 - k*y/sigma)^(1/k)
+	 * @param y exceedances over the threshold, in ascending order
+	 * @return {k, sigma}, or null if the estimate is not valid
+	 */
+	static double[] fitPareto(double[] y) {
+
+		int n = y.length;
+		double a0 = 0;
+		double a1 = 0;
+		for(int m=0; m<n; m++) {
+			double pm = (m + 1 - 0.35) / n;
+			a0 += y[m];
+			a1 += (1 - pm) * y[m];
+		}
+		a0 /= n;
+		a1 /= n;
+
+		double d = a0 - 2*a1;
+		if(d <= 0)
+			return null;
+		double k = a0/d - 2;
+		double sigma = 2*a0*a1/d;
+		if(sigma <= 0 || Double.isNaN(k))
+			return null;
+
+		return new double[] {k, sigma};
+	}
+
+	/**
+	 * Survival function of the generalized Pareto distribution
+	 * @param y
+	 * @param k shape
+	 * @param sigma scale
+	 * @return
+	 */
+	static double survival(double y, double k, double sigma) {
+
+		if(y <= 0)
+			return 1;
+		if(Math.abs(k) < 1e-12)
+			return Math.exp(-y/sigma);
+
+		double z = 1 - k*y/sigma;
+		if(z <= 0)
+			return 0;
+		return Math.pow(z, 1/k);
+	}
+
+}
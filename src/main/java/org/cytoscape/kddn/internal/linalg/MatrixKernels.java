@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2026 agent
+ * 
+ * This file is part of KDDN app for Cytoscape.
+ *
+ * KDDN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * KDDN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with KDDN. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cytoscape.kddn.internal.linalg;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Cross-product kernels on row-major data matrices, data[sample][variable],
+ * as read by <code>FileInput.readData</code>. Every kernel walks the rows
+ * of the data contiguously instead of striding down columns.
+ * @author agent
+ *
+ */
+public class MatrixKernels {
+
+	/**
+	 * width of the square tiles of the Gram matrix
+	 */
+	static final int TILE = 64;
+	
+	/**
+	 * number of data rows folded into a tile at once
+	 */
+	static final int ROWS = 4;
+
+	private MatrixKernels() {
+		
+	}
+
+	/**
+	 * Symmetric rank-k update G = X'X. The result is split into square
+	 * tiles of columns; each tile on or above the diagonal is one task and
+	 * stays in cache while the rows stream by, four at a time. The lower
+	 * triangle is mirrored afterwards. Every entry is summed over the rows
+	 * in the same order whatever the number of threads.
+	 * @param X data matrix (n by p)
+	 * @param exec executor running the tiles
+	 * @return Gram matrix (p by p)
+	 * @throws InterruptedException
+	 */
+	public static double[][] syrk(final double[][] X, ExecutorService exec) 
+			throws InterruptedException {
+		
+		final int p = X[0].length;
+		final double[][] G = new double[p][p];
+		
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		for(int a=0; a<p; a+=TILE)
+			for(int b=a; b<p; b+=TILE) {
+				final int i0 = a;
+				final int i1 = Math.min(a+TILE, p);
+				final int j0 = b;
+				final int j1 = Math.min(b+TILE, p);
+				tasks.add(new Callable<Object>() {
+					@Override
+					public Object call() {
+						syrkTile(X, G, i0, i1, j0, j1);
+						return null;
+					}
+				});
+			}
+		getAll(exec.invokeAll(tasks));
+		
+		for(int i=1; i<p; i++)
+			for(int j=0; j<i; j++)
+				G[i][j] = G[j][i];
+		
+		return G;
+	}
+
+	/**
+	 * Accumulate the tile [i0, i1) x [j0, j1) of X'X, upper triangle only
+	 * @param X
+	 * @param G
+	 * @param i0
+	 * @param i1
+	 * @param j0
+	 * @param j1
+	 */
+	static void syrkTile(double[][] X, double[][] G, 
+			int i0, int i1, int j0, int j1) {
+		syrkTile(X, G, i0, i1, j0, j1, 0, 0);
+	}
+
+	/**
+	 * Accumulate the tile [i0, i1) x [j0, j1) of X'X, upper triangle only,
+	 * into T[i - r0][j - c0]
+	 * @param X
+	 * @param T
+	 * @param i0
+	 * @param i1
+	 * @param j0
+	 * @param j1
+	 * @param r0 row of X'X at the first row of T
+	 * @param c0 column of X'X at the first column of T
+	 */
+	static void syrkTile(double[][] X, double[][] T, 
+			int i0, int i1, int j0, int j1, int r0, int c0) {
+		
+		int n = X.length;
+		int m = 0;
+		for(; m+ROWS<=n; m+=ROWS) {
+			double[] x0 = X[m];
+			double[] x1 = X[m+1];
+			double[] x2 = X[m+2];
+			double[] x3 = X[m+3];
+			for(int i=i0; i<i1; i++) {
+				double v0 = x0[i];
+				double v1 = x1[i];
+				double v2 = x2[i];
+				double v3 = x3[i];
+				double[] g = T[i-r0];
+				for(int j=Math.max(i, j0); j<j1; j++)
+					g[j-c0] += v0*x0[j] + v1*x1[j] + v2*x2[j] + v3*x3[j];
+			}
+		}
+		for(; m<n; m++) {
+			double[] x = X[m];
+			for(int i=i0; i<i1; i++) {
+				double v = x[i];
+				double[] g = T[i-r0];
+				for(int j=Math.max(i, j0); j<j1; j++)
+					g[j-c0] += v * x[j];
+			}
+		}
+	}
+
+	/**
+	 * Largest off-diagonal |X'X|, by the tiles of syrk without keeping the
+	 * Gram matrix, so it also serves data too wide for one
+	 * @param X data matrix (n by p)
+	 * @param exec executor running the tiles
+	 * @return max |(X'X)[i][j]| over i != j
+	 * @throws InterruptedException
+	 */
+	public static double maxAbsOffDiagonal(final double[][] X, ExecutorService exec) 
+			throws InterruptedException {
+		
+		final int p = X[0].length;
+		List<Callable<Double>> tasks = new ArrayList<Callable<Double>>();
+		for(int a=0; a<p; a+=TILE)
+			for(int b=a; b<p; b+=TILE) {
+				final int i0 = a;
+				final int i1 = Math.min(a+TILE, p);
+				final int j0 = b;
+				final int j1 = Math.min(b+TILE, p);
+				tasks.add(new Callable<Double>() {
+					@Override
+					public Double call() {
+						double[][] T = new double[i1-i0][j1-j0];
+						syrkTile(X, T, i0, i1, j0, j1, i0, j0);
+						double max = 0;
+						for(int i=i0; i<i1; i++)
+							for(int j=Math.max(i+1, j0); j<j1; j++)
+								max = Math.max(max, Math.abs(T[i-i0][j-j0]));
+						return max;
+					}
+				});
+			}
+		
+		double max = 0;
+		for(double m : getAll(exec.invokeAll(tasks)))
+			max = Math.max(max, m);
+		return max;
+	}
+
+	/**
+	 * Results of finished tasks in order. An exception thrown by a task is
+	 * passed on to the caller, so a failed tile never leaves a partly
+	 * filled result behind.
+	 * @param futures
+	 * @return
+	 * @throws InterruptedException
+	 */
+	private static <T> List<T> getAll(List<Future<T>> futures) 
+			throws InterruptedException {
+		
+		List<T> results = new ArrayList<T>(futures.size());
+		for(Future<T> f : futures) {
+			try {
+				results.add(f.get());
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if(cause instanceof RuntimeException)
+					throw (RuntimeException) cause;
+				if(cause instanceof Error)
+					throw (Error) cause;
+				throw new RuntimeException(cause);
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Turns the Gram matrix of raw data into that of the standardized data
+	 * (X[m][c] - center[c]) * scale[c], in place:
+	 * G[i][j] = (G[i][j] - n * center[i] * center[j]) * scale[i] * scale[j]
+	 * @param G Gram matrix of the raw data (p by p)
+	 * @param n number of rows of the data
+	 * @param center column means of the data
+	 * @param scale column scales
+	 */
+	public static void standardizeGram(double[][] G, int n, double[] center, 
+			double[] scale) {
+		
+		int p = G.length;
+		for(int i=0; i<p; i++) {
+			double[] g = G[i];
+			double a = n * center[i];
+			double s = scale[i];
+			for(int j=0; j<p; j++)
+				g[j] = (g[j] - a * center[j]) * s * scale[j];
+		}
+	}
+
+	/**
+	 * Matrix-vector product X'y, accumulated row by row
+	 * @param X data matrix (n by p)
+	 * @param y vector of length n
+	 * @return vector of length p
+	 */
+	public static double[] gemvT(double[][] X, double[] y) {
+		
+		int p = X[0].length;
+		double[] v = new double[p];
+		for(int m=0; m<X.length; m++) {
+			double a = y[m];
+			if(a == 0)
+				continue;
+			double[] x = X[m];
+			for(int j=0; j<p; j++)
+				v[j] += a * x[j];
+		}
+		
+		return v;
+	}
+
+}
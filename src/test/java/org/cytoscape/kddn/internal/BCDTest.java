@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2026 agent
+ *
+ * This file is part of KDDN app for Cytoscape.
+ *
+ * KDDN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * KDDN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with KDDN. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cytoscape.kddn.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * The solver options against the exhaustive sweep on the data matrices.
+ * They stop at the same sweep tolerance by another path, so beta agrees
+ * within a few times that tolerance.
+ * @author agent
+ *
+ */
+public class BCDTest {
+
+	private static final int P = 30;
+	private static final double TOLERANCE = 1e-3;
+
+	@Test
+	public void gramMatchesDataPath() throws InterruptedException {
+		KddnSettings s = settings();
+		s.gramLimit = P;
+		assertBetaEquals("Gram", reference(), KddnMethods.solveDDN(s).beta);
+	}
+
+	@Test
+	public void activeSetMatchesFullSweep() throws InterruptedException {
+		KddnSettings s = settings();
+		s.activeSet = true;
+		assertBetaEquals("active set", reference(), KddnMethods.solveDDN(s).beta);
+		s.gramLimit = P;
+		assertBetaEquals("active set, Gram", reference(), KddnMethods.solveDDN(s).beta);
+	}
+
+	@Test
+	public void screeningMatchesFullSweep() throws InterruptedException {
+		KddnSettings s = settings();
+		s.screening = true;
+		assertBetaEquals("screening", reference(), KddnMethods.solveDDN(s).beta);
+		s.gramLimit = P;
+		assertBetaEquals("screening, Gram", reference(), KddnMethods.solveDDN(s).beta);
+		s.activeSet = true;
+		assertBetaEquals("screening, active set, Gram", reference(), KddnMethods.solveDDN(s).beta);
+	}
+
+	/**
+	 * Exhaustive sweep on the data matrices
+	 * @return
+	 * @throws InterruptedException
+	 */
+	private static double[][] reference() throws InterruptedException {
+		return KddnMethods.solveDDN(settings()).beta;
+	}
+
+	/**
+	 * Two conditions whose neighboring genes are correlated, more so in
+	 * the first one, so both common and differential edges are found
+	 * @return
+	 */
+	private static KddnSettings settings() {
+		double[][] data1 = chain(60, 0.6, 1);
+		double[][] data2 = chain(50, 0.3, 2);
+		KddnMethods.standardizeData(data1);
+		KddnMethods.standardizeData(data2);
+		KddnSettings s = new KddnSettings(0.2, 0.05, 0.05, data1, data2,
+				new String[P], 0.05);
+		s.activeSet = false;
+		s.screening = false;
+		s.gramLimit = 0;
+		return s;
+	}
+
+	private static double[][] chain(int n, double rho, long seed) {
+		Random r = new Random(seed);
+		double[][] x = new double[n][P];
+		for(int m=0; m<n; m++) {
+			x[m][0] = r.nextGaussian();
+			for(int c=1; c<P; c++)
+				x[m][c] = rho * x[m][c-1] + r.nextGaussian();
+		}
+		return x;
+	}
+
+	private static void assertBetaEquals(String msg, double[][] expected, double[][] actual) {
+		int nonzero = 0;
+		for(int i=0; i<expected.length; i++)
+			for(int j=0; j<expected[i].length; j++) {
+				assertEquals(msg + " beta[" + i + "][" + j + "]", expected[i][j], actual[i][j], TOLERANCE);
+				if(expected[i][j] != 0)
+					nonzero++;
+			}
+		assertTrue(msg + ": the network is empty", nonzero > 0);
+	}
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2026 agent
+ *
+ * This file is part of KDDN app for Cytoscape.
+ *
+ * KDDN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * KDDN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with KDDN. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cytoscape.kddn.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checkpoints written to their file and read back by a later run, in a
+ * directory of their own
+ * @author agent
+ *
+ */
+public class KddnCheckpointTest {
+
+	private static final long KEY = 0x1234abcdL;
+
+	private File dir;
+	private String oldDir;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = File.createTempFile("kddn", "checkpoints");
+		dir.delete();
+		dir.mkdirs();
+		oldDir = System.getProperty(KddnCheckpoint.DIRECTORY_PROPERTY);
+		System.setProperty(KddnCheckpoint.DIRECTORY_PROPERTY, dir.getPath());
+	}
+
+	@After
+	public void tearDown() {
+		if(oldDir == null)
+			System.clearProperty(KddnCheckpoint.DIRECTORY_PROPERTY);
+		else
+			System.setProperty(KddnCheckpoint.DIRECTORY_PROPERTY, oldDir);
+		File[] files = dir.listFiles();
+		for(int i=0; files != null && i<files.length; i++)
+			files[i].delete();
+		dir.delete();
+	}
+
+	@Test
+	public void savedCheckpointIsReadBack() {
+		KddnCheckpoint saved = KddnCheckpoint.open(KEY, 42, true);
+		assertFalse(saved.isResumed());
+		fill(saved);
+		saved.save(true);
+		assertTrue(saved.getFile().isFile());
+
+		KddnCheckpoint read = KddnCheckpoint.open(KEY, 7, true);
+		assertTrue(read.isResumed());
+		assertEquals("seed of the saved run", 42, read.seed);
+		assertCheckpointEquals(saved, read);
+	}
+
+	@Test
+	public void checkpointWithoutPermutationsIsReadBack() {
+		KddnCheckpoint saved = KddnCheckpoint.open(KEY, 42, true);
+		saved.lambda2Count = 12;
+		saved.lambda2Mean = 0.125;
+		saved.save(true);
+
+		KddnCheckpoint read = KddnCheckpoint.open(KEY, 42, false);
+		assertTrue(read.isResumed());
+		assertEquals(12, read.lambda2Count);
+		assertEquals(0.125, read.lambda2Mean, 0);
+		assertEquals(0, read.permutations);
+		assertNull(read.permNet);
+		assertNull(read.dirPerm);
+		assertNull(read.chainId);
+	}
+
+	@Test
+	public void fixedSeedDoesNotResumeAnotherSeed() {
+		KddnCheckpoint saved = KddnCheckpoint.open(KEY, 42, true);
+		fill(saved);
+		saved.save(true);
+
+		KddnCheckpoint read = KddnCheckpoint.open(KEY, 7, false);
+		assertFalse(read.isResumed());
+		assertEquals(7, read.seed);
+		assertEquals(0, read.permutations);
+	}
+
+	@Test
+	public void memoryCheckpointWritesNothing() {
+		KddnCheckpoint memory = KddnCheckpoint.create(KEY, 42);
+		fill(memory);
+		memory.save(true);
+		assertFalse(memory.getFile().exists());
+		assertFalse(KddnCheckpoint.open(KEY, 42, true).isResumed());
+	}
+
+	@Test
+	public void deletedCheckpointIsNotResumed() {
+		KddnCheckpoint saved = KddnCheckpoint.open(KEY, 42, true);
+		fill(saved);
+		saved.save(true);
+		saved.delete();
+		assertFalse(saved.getFile().exists());
+		// the progress stays in memory to continue the run
+		assertEquals(3, saved.permutations);
+		assertFalse(KddnCheckpoint.open(KEY, 42, true).isResumed());
+	}
+
+	@Test
+	public void copyIsIndependent() {
+		KddnCheckpoint saved = KddnCheckpoint.create(KEY, 42);
+		fill(saved);
+		KddnCheckpoint copy = saved.copy();
+		assertCheckpointEquals(saved, copy);
+		copy.permNet[0][1]++;
+		copy.dirPerm[0][0]++;
+		copy.chainId[0][0]++;
+		assertEquals(5, saved.permNet[0][1]);
+		assertEquals(0.5, saved.dirPerm[0][0], 0);
+		assertEquals(2, saved.chainId[0][0]);
+	}
+
+	/**
+	 * Progress of every stage, with two swap chains of which one has not
+	 * started
+	 * @param c
+	 */
+	private static void fill(KddnCheckpoint c) {
+		c.lambda2Count = 37;
+		c.lambda2Mean = 0.0813;
+		c.lambda2M2 = 0.0021;
+		c.lambda2Solves = 211;
+		c.lambda2Mid = 0.08;
+		c.lambda2Low = 0.045;
+		c.lambda2High = 0.115;
+		c.thetaSteps = 4;
+		c.thetaHigh = 0.5;
+		c.thetaLow = 0.25;
+		c.thetaMid = 0.375;
+		c.thetaDeviation = 0.01;
+		c.thetaRemaining = 3.5;
+		c.thetaPortion = 0.2;
+		c.pvalueKey = 0x5555aaaaL;
+		c.permutations = 3;
+		c.permNet = new int[][] {{0, 5, 0}, {0, 0, 1}, {0, 0, 0}};
+		c.numSolved = new int[] {3, 3, 0};
+		c.solveNode = new boolean[] {true, true, false};
+		c.dirPerm = new double[][] {{0.5, 0.25, 0}, {0.125, 0, 1}};
+		c.chainId = new int[][] {{2, 0, 1, 3}, {}};
+		c.chainState = new long[] {-17, 0};
+	}
+
+	private static void assertCheckpointEquals(KddnCheckpoint expected, KddnCheckpoint actual) {
+		assertEquals(expected.lambda2Count, actual.lambda2Count);
+		assertEquals(expected.lambda2Mean, actual.lambda2Mean, 0);
+		assertEquals(expected.lambda2M2, actual.lambda2M2, 0);
+		assertEquals(expected.lambda2Solves, actual.lambda2Solves);
+		assertEquals(expected.lambda2Mid, actual.lambda2Mid, 0);
+		assertEquals(expected.lambda2Low, actual.lambda2Low, 0);
+		assertEquals(expected.lambda2High, actual.lambda2High, 0);
+		assertEquals(expected.thetaSteps, actual.thetaSteps);
+		assertEquals(expected.thetaHigh, actual.thetaHigh, 0);
+		assertEquals(expected.thetaLow, actual.thetaLow, 0);
+		assertEquals(expected.thetaMid, actual.thetaMid, 0);
+		assertEquals(expected.thetaDeviation, actual.thetaDeviation, 0);
+		assertEquals(expected.thetaRemaining, actual.thetaRemaining, 0);
+		assertEquals(expected.thetaPortion, actual.thetaPortion, 0);
+		assertEquals(expected.pvalueKey, actual.pvalueKey);
+		assertEquals(expected.permutations, actual.permutations);
+		for(int i=0; i<expected.permNet.length; i++) {
+			assertArrayEquals(expected.permNet[i], actual.permNet[i]);
+			assertEquals(expected.numSolved[i], actual.numSolved[i]);
+			assertEquals("solveNode[" + i + "]", expected.solveNode[i] ? 1 : 0, actual.solveNode[i] ? 1 : 0);
+		}
+		assertEquals(expected.dirPerm.length, actual.dirPerm.length);
+		for(int e=0; e<expected.dirPerm.length; e++)
+			for(int b=0; b<expected.permutations; b++)
+				assertEquals(expected.dirPerm[e][b], actual.dirPerm[e][b], 0);
+		assertEquals(expected.chainId.length, actual.chainId.length);
+		for(int c=0; c<expected.chainId.length; c++) {
+			assertArrayEquals(expected.chainId[c], actual.chainId[c]);
+			assertEquals(expected.chainState[c], actual.chainState[c]);
+		}
+	}
+}
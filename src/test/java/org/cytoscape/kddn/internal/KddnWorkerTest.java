@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2026 agent
+ *
+ * This file is part of KDDN app for Cytoscape.
+ *
+ * KDDN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * KDDN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with KDDN. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cytoscape.kddn.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Settings sent to a worker process are read back as they were written
+ * @author agent
+ *
+ */
+public class KddnWorkerTest {
+
+	@Test
+	public void settingsAreReadBack() throws Exception {
+		KddnSettings s = new KddnSettings(0.3, 0.07, 0.01, 0.25, prior(3),
+				new double[][] {{1, 2, 3}, {4, 5, 6.5}}, new double[][] {{-1, 0, 1}},
+				new String[] {"TP53", null, "\u00e9p\u00e9e"}, 0.1, 0.2);
+		s.seed = -1234567890123L;
+		s.center1 = new double[] {2.5, 3.5, 4.75};
+		s.scale1 = new double[] {1, 0.5, 0.25};
+		s.center2 = new double[] {-1, 0, 1};
+		s.scale2 = new double[] {2, 2, 2};
+		s.activeSet = !s.activeSet;
+		s.screening = !s.screening;
+		s.dualityGap = 1e-6;
+		s.gramLimit = 17;
+		s.targetedPermutation = !s.targetedPermutation;
+		s.permutationExceedances = 10;
+		s.tailPvalue = !s.tailPvalue;
+		s.permutationSwaps = 12;
+		s.warmPermutation = !s.warmPermutation;
+
+		assertSettingsEqual(s, roundTrip(s));
+	}
+
+	@Test
+	public void standardizedSettingsAreReadBack() throws Exception {
+		KddnSettings s = new KddnSettings(0.2, 0.05, 0.05,
+				new double[][] {{1, 0}, {-1, 0}}, new double[][] {{0, 1}, {0, -1}},
+				new String[] {"a", "b"}, 0.05);
+		KddnSettings read = roundTrip(s);
+		assertNull(read.center1);
+		assertNull(read.scale2);
+		assertSettingsEqual(s, read);
+	}
+
+	private static KddnSettings roundTrip(KddnSettings s) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		KddnWorker.writeSettings(out, s);
+		out.close();
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		KddnSettings read = KddnWorker.readSettings(in);
+		assertEquals("bytes left", 0, in.available());
+		return read;
+	}
+
+	private static int[][] prior(int p) {
+		int[][] W = new int[p][2*p];
+		W[0][1] = 1;
+		W[1][0] = 1;
+		W[2][p+1] = 1;
+		return W;
+	}
+
+	/**
+	 * Every public field but the Gram matrices, which a worker computes
+	 * itself
+	 * @param expected
+	 * @param actual
+	 * @throws IllegalAccessException
+	 */
+	private static void assertSettingsEqual(KddnSettings expected, KddnSettings actual)
+			throws IllegalAccessException {
+		for(Field f : KddnSettings.class.getFields()) {
+			if(f.getName().equals("gram1") || f.getName().equals("gram2"))
+				continue;
+			Object a = f.get(expected);
+			Object b = f.get(actual);
+			assertTrue(f.getName() + " expected " + a + " got " + b,
+					Arrays.deepEquals(new Object[] {a}, new Object[] {b}));
+		}
+	}
+}
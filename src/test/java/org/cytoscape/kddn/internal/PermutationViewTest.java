@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2026 agent
+ *
+ * This file is part of KDDN app for Cytoscape.
+ *
+ * KDDN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * KDDN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with KDDN. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cytoscape.kddn.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Permutations solved on views of the input rows, standardized on the
+ * fly, against the same permutations copied and standardized in place
+ * @author agent
+ *
+ */
+public class PermutationViewTest {
+
+	private static final int P = 12;
+	private static final int N1 = 25;
+	private static final int N2 = 20;
+
+	@Test
+	public void permuteSharesTheRows() {
+		double[][] a = random(N1, 1);
+		double[][] b = random(N2, 2);
+		int[] id = KddnMethods.permutation(N1 + N2, new SplitRandom(3));
+		double[][] view = KddnMethods.permute(a, b, id, N1, N1 + N2 - 1);
+		assertEquals(N2, view.length);
+		for(int m=0; m<N2; m++) {
+			int row = id[N1 + m];
+			assertTrue("row " + m, view[m] == (row < N1 ? a[row] : b[row - N1]));
+		}
+	}
+
+	@Test
+	public void columnScalingStandardizesAsInPlace() {
+		double[][] x = random(N1, 4);
+		double[][] copy = copy(x);
+		KddnMethods.standardizeData(copy);
+		double[][] s = KddnMethods.columnScaling(x);
+		for(int m=0; m<N1; m++)
+			for(int c=0; c<P; c++)
+				assertEquals("x[" + m + "][" + c + "]", copy[m][c], (x[m][c] - s[0][c]) * s[1][c], 1e-12);
+	}
+
+	@Test
+	public void viewSolvesAsCopy() throws InterruptedException {
+		double[][] a = random(N1, 5);
+		double[][] b = random(N2, 6);
+		double[][] a0 = copy(a);
+		double[][] b0 = copy(b);
+		int[] id = KddnMethods.permutation(N1 + N2, new SplitRandom(7));
+		for(int gramLimit : new int[] {0, P}) {
+			KddnSettings view = new KddnSettings(0.2, 0.05, 0.05,
+					KddnMethods.permute(a, b, id, 0, N1 - 1),
+					KddnMethods.permute(a, b, id, N1, N1 + N2 - 1), new String[P], 0.05);
+			KddnMethods.standardizeView(view);
+			view.gramLimit = gramLimit;
+
+			double[][] c1 = copy(view.data1);
+			double[][] c2 = copy(view.data2);
+			KddnMethods.standardizeData(c1);
+			KddnMethods.standardizeData(c2);
+			KddnSettings copied = new KddnSettings(0.2, 0.05, 0.05, c1, c2, new String[P], 0.05);
+			copied.gramLimit = gramLimit;
+
+			double[][] expected = KddnMethods.solveDDN(copied).beta;
+			double[][] actual = KddnMethods.solveDDN(view).beta;
+			int nonzero = 0;
+			for(int i=0; i<P; i++)
+				for(int j=0; j<2*P; j++) {
+					assertEquals("gramLimit " + gramLimit + " beta[" + i + "][" + j + "]",
+							expected[i][j], actual[i][j], 1e-8);
+					if(expected[i][j] != 0)
+						nonzero++;
+				}
+			assertTrue("the network is empty", nonzero > 0);
+		}
+
+		// the input the views share is left as it was
+		for(int m=0; m<N1; m++)
+			for(int c=0; c<P; c++)
+				assertEquals(a0[m][c], a[m][c], 0);
+		for(int m=0; m<N2; m++)
+			for(int c=0; c<P; c++)
+				assertEquals(b0[m][c], b[m][c], 0);
+	}
+
+	/**
+	 * Raw rows with other means and scales in every column and neighboring
+	 * genes correlated
+	 */
+	private static double[][] random(int n, long seed) {
+		Random r = new Random(seed);
+		double[][] x = new double[n][P];
+		for(int m=0; m<n; m++) {
+			double z = r.nextGaussian();
+			for(int c=0; c<P; c++) {
+				z = 0.5 * z + r.nextGaussian();
+				x[m][c] = 10 + c + (1 + c % 3) * z;
+			}
+		}
+		return x;
+	}
+
+	private static double[][] copy(double[][] x) {
+		double[][] y = new double[x.length][];
+		for(int m=0; m<x.length; m++)
+			y[m] = x[m].clone();
+		return y;
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2026 agent
+ *
+ * This file is part of KDDN app for Cytoscape.
+ *
+ * KDDN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * KDDN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with KDDN. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cytoscape.kddn.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Streams of a run are reproducible from the seed and do not overlap or
+ * correlate across tasks, stages and seeds
+ * @author agent
+ *
+ */
+public class SplitRandomTest {
+
+	private static final int N = 10000;
+
+	@Test
+	public void streamsAreReproducible() {
+		SplitRandom a = SplitRandom.stream(42, SplitRandom.PVALUE, 7);
+		SplitRandom b = SplitRandom.stream(42, SplitRandom.PVALUE, 7);
+		for(int m=0; m<N; m++)
+			assertEquals("draw " + m, a.nextLong(), b.nextLong());
+	}
+
+	@Test
+	public void stateContinuesTheStream() {
+		SplitRandom a = SplitRandom.stream(42, SplitRandom.SWAP, 3);
+		for(int m=0; m<100; m++)
+			a.nextInt(17);
+		SplitRandom b = new SplitRandom(a.state());
+		for(int m=0; m<N; m++)
+			assertEquals("draw " + m, a.nextLong(), b.nextLong());
+	}
+
+	@Test
+	public void streamsDoNotOverlap() {
+		long[][] keys = {
+				{42, SplitRandom.PVALUE, 0}, {42, SplitRandom.PVALUE, 1},
+				{42, SplitRandom.LAMBDA2, 0}, {42, SplitRandom.THETA, 0},
+				{42, SplitRandom.SWAP, 0}, {43, SplitRandom.PVALUE, 0}};
+		Set<Long> seen = new HashSet<Long>();
+		for(long[] k : keys) {
+			SplitRandom r = SplitRandom.stream(k[0], (int) k[1], k[2]);
+			for(int m=0; m<N; m++)
+				assertTrue("seed " + k[0] + " stage " + k[1] + " index " + k[2] +
+						" repeats another stream at draw " + m, seen.add(r.nextLong()));
+		}
+	}
+
+	@Test
+	public void neighboringStreamsAreUncorrelated() {
+		// the correlation of independent uniforms is about N(0, 1/N)
+		double bound = 4 / Math.sqrt(N);
+		for(int index=0; index<20; index++) {
+			SplitRandom a = SplitRandom.stream(0, SplitRandom.PVALUE, index);
+			SplitRandom b = SplitRandom.stream(0, SplitRandom.PVALUE, index+1);
+			SplitRandom c = SplitRandom.stream(0, SplitRandom.LAMBDA2, index);
+			double[] x = new double[N];
+			double[] y = new double[N];
+			double[] z = new double[N];
+			for(int m=0; m<N; m++) {
+				x[m] = a.nextDouble();
+				y[m] = b.nextDouble();
+				z[m] = c.nextDouble();
+			}
+			assertEquals("index " + index + " and the next", 0, correlation(x, y), bound);
+			assertEquals("index " + index + " of two stages", 0, correlation(x, z), bound);
+		}
+	}
+
+	@Test
+	public void nextIntIsUniform() {
+		int bound = 7;
+		int[] count = new int[bound];
+		SplitRandom r = SplitRandom.stream(1, SplitRandom.SWAP, 0);
+		for(int m=0; m<7*N; m++)
+			count[r.nextInt(bound)]++;
+		// chi-square with 6 degrees of freedom, 22.5 is its 0.999 quantile
+		double chi2 = 0;
+		for(int c : count)
+			chi2 += (c - N) * (double) (c - N) / N;
+		assertTrue("chi-square " + chi2, chi2 < 22.5);
+	}
+
+	private static double correlation(double[] x, double[] y) {
+		int n = x.length;
+		double mx = 0;
+		double my = 0;
+		for(int m=0; m<n; m++) {
+			mx += x[m] / n;
+			my += y[m] / n;
+		}
+		double sxy = 0;
+		double sxx = 0;
+		double syy = 0;
+		for(int m=0; m<n; m++) {
+			sxy += (x[m] - mx) * (y[m] - my);
+			sxx += (x[m] - mx) * (x[m] - mx);
+			syy += (y[m] - my) * (y[m] - my);
+		}
+		return sxy / Math.sqrt(sxx * syy);
+	}
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2026 agent
+ *
+ * This file is part of KDDN app for Cytoscape.
+ *
+ * KDDN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * KDDN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with KDDN. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cytoscape.kddn.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * The generalized Pareto fit on samples of known shape and scale, and the
+ * p-values read from it
+ * @author agent
+ *
+ */
+public class TailPvalueTest {
+
+	@Test
+	public void fitParetoRecoversShapeAndScale() {
+		double[][] cases = {{-0.2, 1}, {0, 2}, {0.3, 0.5}};
+		for(double[] c : cases) {
+			double[] fit = TailPvalue.fitPareto(pareto(20000, c[0], c[1], 7));
+			String msg = "k=" + c[0] + " sigma=" + c[1];
+			assertEquals(msg, c[0], fit[0], 0.05);
+			assertEquals(msg, c[1], fit[1], 0.05 * c[1]);
+		}
+	}
+
+	@Test
+	public void survivalIsTheParetoTail() {
+		assertEquals(Math.exp(-1.5), TailPvalue.survival(3, 0, 2), 1e-12);
+		assertEquals(Math.pow(1.2, -5), TailPvalue.survival(2, -0.2, 2), 1e-12);
+		assertEquals(0, TailPvalue.survival(5, 0.5, 2), 0);
+		assertEquals(1, TailPvalue.survival(-1, 0.5, 2), 0);
+	}
+
+	@Test
+	public void manyExceedancesKeepTheEmpiricalPvalue() {
+		double[] perm = exponential(1000, 3);
+		assertEquals(0.01, TailPvalue.pValue(10, 4.6, perm, 1000), 0);
+		assertEquals(0.25, TailPvalue.pValue(250, 1.4, perm, 1000), 0);
+	}
+
+	@Test
+	public void fewExceedancesAreReadFromTheTail() {
+		int n = 10000;
+		double[] perm = exponential(n, 5);
+		for(double p : new double[] {5e-4, 1e-4, 1e-5}) {
+			double statistic = -Math.log(p);
+			int exceed = 0;
+			for(double x : perm)
+				if(x >= statistic)
+					exceed++;
+			assertTrue("p=" + p + " exceedances " + exceed, exceed < TailPvalue.MIN_EXCEEDANCES);
+			double tail = TailPvalue.pValue(exceed, statistic, perm, n);
+			assertTrue("p=" + p + " tail " + tail, tail > p / 2 && tail < p * 2);
+		}
+	}
+
+	@Test
+	public void shortTailsKeepTheEmpiricalPvalue() {
+		// fewer than MIN_TAIL positive statistics, e.g. an edge that is
+		// zero in most permutations
+		double[] perm = new double[1000];
+		System.arraycopy(exponential(20, 9), 0, perm, 0, 20);
+		assertEquals(0.002, TailPvalue.pValue(2, 3, perm, 1000), 0);
+		// too few permutations for a tail of MIN_TAIL
+		assertEquals(0.005, TailPvalue.pValue(1, 3, exponential(200, 9), 200), 0);
+	}
+
+	/**
+	 * Sample of the generalized Pareto distribution by its inverse
+	 * distribution function, in ascending order
+	 */
+	private static double[] pareto(int n, double k, double sigma, long seed) {
+		Random r = new Random(seed);
+		double[] y = new double[n];
+		for(int m=0; m<n; m++) {
+			double u = r.nextDouble();
+			y[m] = k == 0 ? -sigma * Math.log(1 - u) : sigma / k * (1 - Math.pow(1 - u, k));
+		}
+		Arrays.sort(y);
+		return y;
+	}
+
+	private static double[] exponential(int n, long seed) {
+		Random r = new Random(seed);
+		double[] x = new double[n];
+		for(int m=0; m<n; m++)
+			x[m] = -Math.log(1 - r.nextDouble());
+		return x;
+	}
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2026 agent
+ * 
+ * This file is part of KDDN app for Cytoscape.
+ *
+ * KDDN is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * KDDN is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with KDDN. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.cytoscape.kddn.internal.linalg;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The kernels against naive loops, on shapes that do not divide into
+ * whole tiles of columns or whole groups of rows
+ * @author agent
+ *
+ */
+public class MatrixKernelsTest {
+
+	private static final int[] COLUMNS = {1, 2, 63, 64, 65, 130};
+	private static final int[] ROWS = {1, 3, 5, 8, 13};
+
+	private ExecutorService exec;
+
+	@Before
+	public void setUp() {
+		exec = Executors.newFixedThreadPool(3);
+	}
+
+	@After
+	public void tearDown() {
+		exec.shutdownNow();
+	}
+
+	@Test
+	public void syrkMatchesNaiveProduct() throws InterruptedException {
+		for(int p : COLUMNS)
+			for(int n : ROWS) {
+				double[][] X = random(n, p, 31*n + p);
+				assertMatrixEquals("n=" + n + " p=" + p, naiveGram(X), 
+						MatrixKernels.syrk(X, exec));
+			}
+	}
+
+	@Test
+	public void syrkTileFillsOnlyItsUpperTriangle() {
+		int n = 7;
+		int p = 130;
+		double[][] X = random(n, p, 5);
+		double[][] G = naiveGram(X);
+		int[][] tiles = {{0, 64, 0, 64}, {0, 64, 64, 128}, {64, 128, 128, 130}, 
+				{128, 130, 128, 130}, {3, 40, 17, 99}};
+		for(int[] t : tiles) {
+			int i0 = t[0], i1 = t[1], j0 = t[2], j1 = t[3];
+			double[][] T = new double[i1-i0][j1-j0];
+			MatrixKernels.syrkTile(X, T, i0, i1, j0, j1, i0, j0);
+			for(int i=i0; i<i1; i++)
+				for(int j=j0; j<j1; j++) {
+					double expected = j >= i ? G[i][j] : 0;
+					assertEquals("tile " + i + "," + j, expected, T[i-i0][j-j0], 
+							1e-12 * (1 + Math.abs(expected)));
+				}
+		}
+	}
+
+	@Test
+	public void gemvTMatchesNaiveProduct() {
+		for(int p : COLUMNS)
+			for(int n : ROWS) {
+				double[][] X = random(n, p, 17*n + p);
+				double[] y = random(1, n, n + 3*p)[0];
+				y[0] = 0; // zero entries are skipped
+				double[] v = MatrixKernels.gemvT(X, y);
+				for(int j=0; j<p; j++) {
+					double expected = 0;
+					for(int m=0; m<n; m++)
+						expected += X[m][j] * y[m];
+					assertEquals("n=" + n + " p=" + p + " j=" + j, expected, v[j], 
+							1e-12 * (1 + Math.abs(expected)));
+				}
+			}
+	}
+
+	@Test
+	public void standardizeGramMatchesGramOfStandardizedData() throws InterruptedException {
+		for(int p : COLUMNS)
+			for(int n : ROWS) {
+				double[][] X = random(n, p, 7*n + p);
+				// the identity holds for the column means as centers
+				double[] center = new double[p];
+				for(int m=0; m<n; m++)
+					for(int c=0; c<p; c++)
+						center[c] += X[m][c] / n;
+				double[] scale = random(1, p, p)[0];
+				double[][] Z = new double[n][p];
+				for(int m=0; m<n; m++)
+					for(int c=0; c<p; c++)
+						Z[m][c] = (X[m][c] - center[c]) * scale[c];
+				
+				double[][] G = MatrixKernels.syrk(X, exec);
+				MatrixKernels.standardizeGram(G, n, center, scale);
+				assertMatrixEquals("n=" + n + " p=" + p, naiveGram(Z), G);
+			}
+	}
+
+	@Test
+	public void maxAbsOffDiagonalMatchesNaiveMaximum() throws InterruptedException {
+		for(int p : COLUMNS)
+			for(int n : ROWS) {
+				double[][] X = random(n, p, 13*n + p);
+				double[][] G = naiveGram(X);
+				double expected = 0;
+				for(int i=0; i<p; i++)
+					for(int j=0; j<p; j++)
+						if(i != j)
+							expected = Math.max(expected, Math.abs(G[i][j]));
+				assertEquals("n=" + n + " p=" + p, expected, 
+						MatrixKernels.maxAbsOffDiagonal(X, exec), 1e-12 * (1 + expected));
+			}
+	}
+
+	@Test(expected = ArrayIndexOutOfBoundsException.class)
+	public void syrkPassesOnTheExceptionOfATile() throws InterruptedException {
+		double[][] X = random(5, 130, 1);
+		X[3] = new double[70]; // too short for the tiles past column 70
+		MatrixKernels.syrk(X, exec);
+	}
+
+	private static double[][] random(int n, int p, long seed) {
+		Random rng = new Random(seed);
+		double[][] X = new double[n][p];
+		for(int m=0; m<n; m++)
+			for(int c=0; c<p; c++)
+				X[m][c] = rng.nextGaussian();
+		return X;
+	}
+
+	private static double[][] naiveGram(double[][] X) {
+		int p = X[0].length;
+		double[][] G = new double[p][p];
+		for(int i=0; i<p; i++)
+			for(int j=0; j<p; j++)
+				for(int m=0; m<X.length; m++)
+					G[i][j] += X[m][i] * X[m][j];
+		return G;
+	}
+
+	private static void assertMatrixEquals(String message, double[][] expected, 
+			double[][] actual) {
+		assertEquals(message, expected.length, actual.length);
+		for(int i=0; i<expected.length; i++)
+			for(int j=0; j<expected.length; j++)
+				assertEquals(message + " at " + i + "," + j, expected[i][j], actual[i][j], 
+						1e-12 * (1 + Math.abs(expected[i][j])));
+	}
+
+}